@@ -1,19 +1,32 @@
 import com.google.inject.AbstractModule;
+import com.google.inject.Singleton;
 import com.google.inject.name.Names;
 import consumer.BaseStationConsumer;
 import consumer.Impl.BaseStationConsumerImpl;
 import dao.BitcaskDAO;
 import dao.Impl.BitcaskDAOImpl;
 import dao.Impl.ParquetDAOImpl;
+import dao.Impl.ParquetQueryDAOImpl;
 import dao.ParquetDAO;
+import dao.ParquetQueryDAO;
 import mapper.Mapper;
 import mapper.MapperImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import service.ArchiveCompactionService;
 import service.BaseStationService;
 import service.ElasticsearchService;
+import service.Impl.ArchiveCompactionServiceImpl;
 import service.Impl.BaseStationServiceImpl;
 import service.Impl.ElasticsearchServiceImpl;
+import service.Impl.StationQueryServiceImpl;
+import service.StationQueryService;
+import utils.BitcaskOptions;
+import utils.ElasticsearchOptions;
+import utils.Impl.OpenAddressingKeyDir;
+import utils.KeyDir;
+import utils.ParquetOptions;
+import utils.StationQueryOptions;
 
 public class BasicModule extends AbstractModule {
 
@@ -34,13 +47,32 @@ public class BasicModule extends AbstractModule {
         bind(Logger.class)
                 .annotatedWith(Names.named("ParquetLogger"))
                 .toInstance(LoggerFactory.getLogger(ParquetDAOImpl.class));
+        bind(Logger.class)
+                .annotatedWith(Names.named("ParquetQueryLogger"))
+                .toInstance(LoggerFactory.getLogger(ParquetQueryDAOImpl.class));
+        bind(Logger.class)
+                .annotatedWith(Names.named("ArchiveCompactionLogger"))
+                .toInstance(LoggerFactory.getLogger(ArchiveCompactionServiceImpl.class));
+        bind(Logger.class)
+                .annotatedWith(Names.named("StationQueryLogger"))
+                .toInstance(LoggerFactory.getLogger(StationQueryServiceImpl.class));
 
         bind(Mapper.class).to(MapperImpl.class);
 
         bind(BaseStationConsumer.class).to(BaseStationConsumerImpl.class);
         bind(BaseStationService.class).to(BaseStationServiceImpl.class);
-        bind(ElasticsearchService.class).to(ElasticsearchServiceImpl.class);
-        bind(BitcaskDAO.class).to(BitcaskDAOImpl.class);
-        bind(ParquetDAO.class).to(ParquetDAOImpl.class);
+        bind(ElasticsearchService.class).to(ElasticsearchServiceImpl.class).in(Singleton.class);
+        bind(ArchiveCompactionService.class).to(ArchiveCompactionServiceImpl.class);
+        bind(StationQueryService.class).to(StationQueryServiceImpl.class);
+        // One engine per directory: the consumer and the query server must share the KeyDir and the write thread.
+        bind(BitcaskDAO.class).to(BitcaskDAOImpl.class).in(Singleton.class);
+        bind(ParquetDAO.class).to(ParquetDAOImpl.class).in(Singleton.class);
+        bind(ParquetQueryDAO.class).to(ParquetQueryDAOImpl.class);
+
+        bind(KeyDir.class).to(OpenAddressingKeyDir.class);
+        bind(BitcaskOptions.class).toInstance(BitcaskOptions.fromEnvironment());
+        bind(ParquetOptions.class).toInstance(ParquetOptions.fromEnvironment());
+        bind(ElasticsearchOptions.class).toInstance(ElasticsearchOptions.fromEnvironment());
+        bind(StationQueryOptions.class).toInstance(StationQueryOptions.fromEnvironment());
     }
 }
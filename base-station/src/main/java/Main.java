@@ -2,7 +2,9 @@ import com.google.inject.Guice;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
 import consumer.BaseStationConsumer;
+import service.ArchiveCompactionService;
 import service.ElasticsearchService;
+import service.StationQueryService;
 
 public class Main {
 
@@ -12,6 +14,12 @@ public class Main {
     @Inject
     private ElasticsearchService elasticsearchService;
 
+    @Inject
+    private StationQueryService stationQueryService;
+
+    @Inject
+    private ArchiveCompactionService archiveCompactionService;
+
     public static void main(String[] args) {
         Injector injector = Guice.createInjector(new BasicModule());
         Main app = injector.getInstance(Main.class);
@@ -20,6 +28,8 @@ public class Main {
 
     public void run() {
         elasticsearchService.start();
+        stationQueryService.start();
+        archiveCompactionService.start();
         baseStationConsumer.consumeMessage();
     }
 }
@@ -2,14 +2,17 @@ package consumer.Impl;
 
 import com.google.inject.name.Named;
 import consumer.BaseStationConsumer;
-import dto.CompactStationMsgDTO;
+import dao.ParquetDAO;
 import dto.StationStatusMsgDTO;
 import jakarta.inject.Inject;
-import mapper.Mapper;
+import mapper.CompactStationMsgParser;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 import org.apache.kafka.common.serialization.LongDeserializer;
 import org.slf4j.Logger;
@@ -17,25 +20,44 @@ import service.BaseStationService;
 
 import java.io.IOException;
 import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
+/**
+ * Commits the offsets of a poll only once the Parquet archive holds every row of it in a complete file, since rows
+ * still buffered or in a file being written are lost in a crash. Messages after the last commit are read again on
+ * restart, so delivery is at least once and a crash may archive some rows twice.
+ */
 public class BaseStationConsumerImpl implements BaseStationConsumer {
 
     private static final String TOPIC = "weather-station-topic";
     private static final String GROUP_ID = "weather-station-group";
     private static final String BOOTSTRAP_SERVER = "kafka-service:9092";
-    private static final String ENABLE_AUTO_COMMIT = "true";
-    private static final String AUTO_COMMIT_INTERVAL = "1000";
+    private static final String ENABLE_AUTO_COMMIT = "false";
     private static final String AUTO_OFFSET_RESET = "earliest";
 
     @Inject
     @Named("ConsumerLogger")
     private Logger logger;
     @Inject
-    private Mapper mapper;
-    @Inject
     private BaseStationService baseStationService;
+    @Inject
+    private ParquetDAO parquetDAO;
+
+    // Reused across polls, so steady-state ingestion allocates no message objects.
+    private final List<StationStatusMsgDTO> messageHolders = new ArrayList<>();
+    private final CompactStationMsgParser messageParser = new CompactStationMsgParser();
+    // Offsets to commit after each poll, oldest first, until the archive made its rows durable.
+    private final ArrayDeque<PendingCommit> pendingCommits = new ArrayDeque<>();
+
+    private record PendingCommit(long rows, Map<TopicPartition, OffsetAndMetadata> offsets) {
+    }
 
     private Properties getProperties() {
         Properties props = new Properties();
@@ -44,7 +66,6 @@ public class BaseStationConsumerImpl implements BaseStationConsumer {
         props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, LongDeserializer.class.getName());
         props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
         props.setProperty(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, ENABLE_AUTO_COMMIT);
-        props.setProperty(ConsumerConfig.AUTO_COMMIT_INTERVAL_MS_CONFIG, AUTO_COMMIT_INTERVAL);
         props.setProperty(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, AUTO_OFFSET_RESET);
         return props;
     }
@@ -54,21 +75,73 @@ public class BaseStationConsumerImpl implements BaseStationConsumer {
         Properties props = getProperties();
 
         try (KafkaConsumer<Long, byte[]> consumer = new KafkaConsumer<>(props)) {
-            consumer.subscribe(Collections.singletonList(TOPIC));
+            consumer.subscribe(Collections.singletonList(TOPIC), new ConsumerRebalanceListener() {
+                @Override
+                public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+                    // Their next owner reads from the last commit, which must not move back behind its own.
+                    for (PendingCommit pendingCommit : pendingCommits) {
+                        pendingCommit.offsets().keySet().removeAll(partitions);
+                    }
+                }
+
+                @Override
+                public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+                }
+            });
             while (true) {
                 ConsumerRecords<Long, byte[]> records = consumer.poll(Duration.ofMillis(1000));
+                commitDurableOffsets(consumer);
+                if (records.isEmpty()) {
+                    continue;
+                }
+
+                int parsed = 0;
                 for (ConsumerRecord<Long, byte[]> record : records) {
-                    CompactStationMsgDTO compactMessage = mapper.deserializeCompactStationMsg(record.value());
-                    StationStatusMsgDTO message = mapper.compactStationMsgToStationStatusMsg(
-                            compactMessage,
-                            record.key(),
-                            record.timestamp());
-                    baseStationService.serveMessage(message);
+                    if (parsed == messageHolders.size()) {
+                        messageHolders.add(new StationStatusMsgDTO());
+                    }
+                    try {
+                        messageParser.parse(record.value(), record.key(), record.timestamp(),
+                                messageHolders.get(parsed));
+                        parsed++;
+                    } catch (IOException e) {
+                        logger.error("Skipping a malformed message at offset {} of partition {}",
+                                record.offset(), record.partition(), e);
+                    }
                 }
+                baseStationService.serveMessages(messageHolders.subList(0, parsed));
+                pendingCommits.add(new PendingCommit(parquetDAO.getAcceptedRows(), nextOffsets(records)));
             }
-        } catch (IOException e) {
-            logger.error("Failed to consume messages", e);
         }
 
     }
+
+    private static Map<TopicPartition, OffsetAndMetadata> nextOffsets(ConsumerRecords<Long, byte[]> records) {
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+
+        for (TopicPartition partition : records.partitions()) {
+            List<ConsumerRecord<Long, byte[]>> partitionRecords = records.records(partition);
+            offsets.put(partition, new OffsetAndMetadata(partitionRecords.get(partitionRecords.size() - 1).offset() + 1));
+        }
+        return offsets;
+    }
+
+    /* Polls seldom cover every partition, so the offsets of all the polls made durable are merged, newest last */
+    private void commitDurableOffsets(KafkaConsumer<Long, byte[]> consumer) {
+        long durableRows = parquetDAO.getDurableRows();
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+
+        while (!pendingCommits.isEmpty() && pendingCommits.peek().rows() <= durableRows) {
+            offsets.putAll(pendingCommits.poll().offsets());
+        }
+        if (offsets.isEmpty()) {
+            return;
+        }
+
+        consumer.commitAsync(offsets, (committed, e) -> {
+            if (e != null) {
+                logger.error("Failed to commit the offsets {}", committed, e);
+            }
+        });
+    }
 }
@@ -1,9 +1,61 @@
 package dao;
 
+import utils.CacheStats;
+import utils.MergeStats;
 
-public interface BitcaskDAO {
+import java.util.concurrent.CompletableFuture;
 
+public interface BitcaskDAO extends AutoCloseable {
+
+    /**
+     * Queues the record. Values must not be null or longer than {@link Short#MAX_VALUE} bytes, or an
+     * {@link IllegalArgumentException} is thrown; the same goes for the other writes.
+     */
     void write(long key, byte[] value);
 
+    /**
+     * Same as {@link #write}, but the returned future completes once the record has been forced to disk under the
+     * configured sync policy.
+     */
+    CompletableFuture<Void> writeDurably(long key, byte[] value);
+
+    /**
+     * Queues the records as one request. When a key appears more than once only its last value is written.
+     */
+    void writeBatch(long[] keys, byte[][] values);
+
+    /**
+     * Queues a tombstone for the key; reads stop returning it once the writer has applied it.
+     */
+    void delete(long key);
+
     byte[] read(long key);
+
+    /**
+     * Returns the values of {@code keys} in the same order, with null for missing keys. Values are read grouped by
+     * data file and offset rather than in key order.
+     */
+    byte[][] multiGet(long[] keys);
+
+    /**
+     * Streams the latest value of every key to {@code consumer}, reading each data file sequentially. Keys written
+     * during the scan may or may not be seen.
+     */
+    void scanAll(EntryConsumer consumer);
+
+    MergeStats getMergeStats();
+
+    CacheStats getCacheStats();
+
+    /**
+     * Writes and forces every record queued so far, then stops the writer and the merges. Later writes throw an
+     * {@link IllegalStateException}.
+     */
+    @Override
+    void close();
+
+    interface EntryConsumer {
+
+        void accept(long key, byte[] value);
+    }
 }
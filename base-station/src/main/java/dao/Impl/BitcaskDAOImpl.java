@@ -1,50 +1,150 @@
 package dao.Impl;
 
 import com.google.inject.Inject;
+import com.google.inject.Provider;
 import com.google.inject.name.Named;
 import dao.BitcaskDAO;
 import org.slf4j.Logger;
+import utils.BitcaskOptions;
+import utils.BitcaskRecord;
+import utils.CacheStats;
+import utils.DataFileStats;
+import utils.KeyDir;
 import utils.KeyDirValue;
+import utils.MappedFileCache;
+import utils.MergeStats;
+import utils.RateLimiter;
+import utils.SyncPolicy;
+import utils.ValueCache;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
 import java.util.regex.Pattern;
+import java.util.zip.CRC32C;
+
+import static utils.BitcaskRecord.KEY_SIZE;
 
 public class BitcaskDAOImpl implements BitcaskDAO {
 
-    private static final String BITCASK_BASE_DIRECTORY = "/app/src/bitcask/";
-    private static final int MAX_FILE_SIZE = 1024 * 1024;
-    private static final short KEY_SIZE = 8;
-    private static final int MERGE_DELAY = 60 * 1000;
-    private static final int MERGE_INTERVAL = 2 * 60 * 1000;
+    private static final int WRITE_QUEUE_CAPACITY = 10_000;
+    private static final int MAX_WRITE_BATCH = 1024;
+    private static final int BUFFERED_KEY_SLOTS = 2 * MAX_WRITE_BATCH;
+    private static final int WRITE_BUFFER_SIZE = 256 * 1024;
+    private static final int MAX_READ_ATTEMPTS = 3;
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 30 * 1000;
+    // Queued in place of a value to delete a key; compared by identity, so it never clashes with an empty value.
+    private static final byte[] TOMBSTONE_VALUE = new byte[0];
 
     private final Logger logger;
-    private final Map<Long, KeyDirValue> globalKeyDir;
-    private RandomAccessFile activeFile;
-    private long activeFileID;
+    private final BitcaskOptions options;
+    private final String directory;
+    private final Provider<KeyDir> keyDirProvider;
+    private final KeyDir globalKeyDir;
+    private final BlockingQueue<WriteRequest> writeQueue = new ArrayBlockingQueue<>(WRITE_QUEUE_CAPACITY);
+    private final AtomicLong lastFileID = new AtomicLong();
+    private final MappedFileCache mappedFiles;
+    private final ValueCache valueCache;
+    private final AtomicReference<ActiveFileReader> activeFileReader = new AtomicReference<>();
+    private final Map<Long, DataFileStats> fileStats = new ConcurrentHashMap<>();
+    private final KeyDir.DeadEntryConsumer deadEntryTracker = this::markDead;
+    private final MergeStats mergeStats = new MergeStats();
+    private volatile long activeFileID;
+    private Thread writerThread;
+    private ScheduledExecutorService mergeExecutor;
+    private volatile boolean closed;
+
+    // Owned by the writer thread.
+    private FileChannel activeFile;
+    private long activeFileSize;
+    private long lastSyncTime;
+    private boolean unsyncedData;
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+    private final CRC32C writeChecksum = new CRC32C();
+    private final long[] bufferedKeys = new long[MAX_WRITE_BATCH];
+    private final long[] bufferedOffsets = new long[MAX_WRITE_BATCH];
+    private final long[] bufferedTimestamps = new long[MAX_WRITE_BATCH];
+    private final short[] bufferedValueSizes = new short[MAX_WRITE_BATCH];
+    private final byte[][] bufferedValues = new byte[MAX_WRITE_BATCH][];
+    private final boolean[] bufferedStored = new boolean[MAX_WRITE_BATCH];
+    private int bufferedRecords;
+    // Latest timestamp of every key in the write buffer, open-addressed; a slot is live if it has the current generation.
+    private final long[] bufferedKeySlots = new long[BUFFERED_KEY_SLOTS];
+    private final long[] bufferedKeyTimestamps = new long[BUFFERED_KEY_SLOTS];
+    private final int[] bufferedKeyGenerations = new int[BUFFERED_KEY_SLOTS];
+    private int bufferedKeyGeneration = 1;
+    // Keys of the request being appended, open-addressed the same way, to find the writes a later one supersedes.
+    private long[] batchKeySlots = new long[BUFFERED_KEY_SLOTS];
+    private int[] batchKeyGenerations = new int[BUFFERED_KEY_SLOTS];
+    private int batchKeyGeneration = 1;
+    private boolean[] superseded = new boolean[MAX_WRITE_BATCH];
+    private final List<CompletableFuture<Void>> unsyncedWrites = new ArrayList<>();
+
+    private record WriteRequest(long[] keys, byte[][] values, CompletableFuture<Void> synced) {
+    }
+
+    // Queued by close after the last write; it holds no records, so the writer appends everything before it and stops.
+    private static final WriteRequest SHUTDOWN = new WriteRequest(new long[0], new byte[0][], null);
+
+    /**
+     * Positional reads into the file still being appended to; every other file is immutable and read from its mapping.
+     */
+    private record ActiveFileReader(long fileID, FileChannel channel) {
+    }
 
     @Inject
-    public BitcaskDAOImpl(@Named("BitcaskLogger") Logger logger) {
+    public BitcaskDAOImpl(@Named("BitcaskLogger") Logger logger, BitcaskOptions options, Provider<KeyDir> keyDirProvider) {
+        if (options.getMaxFileSize() <= 0 || options.getMaxFileSize() > Integer.MAX_VALUE - WRITE_BUFFER_SIZE) {
+            throw new IllegalArgumentException("The bitcask max file size must be positive and below 2 GiB");
+        }
+
         this.logger = logger;
+        this.options = options;
+        this.directory = options.getDirectory();
+        this.keyDirProvider = keyDirProvider;
+        this.mappedFiles = new MappedFileCache(directory, options.getMaxMappedFiles());
+        this.valueCache = new ValueCache(options.getValueCacheEntries(), options.getValueCacheBytes());
+        logger.info("Starting bitcask with {}", options);
 
-        if (!new File(BITCASK_BASE_DIRECTORY).exists()) {
+        if (!new File(directory).exists()) {
             createDirectory();
-            this.globalKeyDir = new HashMap<>();
-            logger.info("Created the bitcask directory successfully at: {} ", BITCASK_BASE_DIRECTORY);
+            this.globalKeyDir = keyDirProvider.get();
+            logger.info("Created the bitcask directory successfully at: {} ", directory);
         } else {
-            this.globalKeyDir = loadKeyDir(new HashSet<>(), new HashSet<>());
-            logger.info("Bitcask directory already exists at: {}", BITCASK_BASE_DIRECTORY);
+            this.globalKeyDir = loadKeyDir();
+            dropExpiredKeys();
+            initFileStats();
+            logger.info("Bitcask directory already exists at: {}", directory);
         }
 
         createActiveFile();
+        initWriterThread();
         initMergeTask();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "bitcask-shutdown"));
     }
 
     private void createDirectory() {
-        if (!new File(BITCASK_BASE_DIRECTORY).mkdir()) {
+        if (!new File(directory).mkdirs()) {
             logger.error("Failed to create the bitcask directory");
         }
     }
@@ -53,16 +153,18 @@ public class BitcaskDAOImpl implements BitcaskDAO {
         Pattern pattern = Pattern.compile("hint-\\d+");
         String hintPrefix = "hint-";
 
-        for (File file : Objects.requireNonNull(new File(BITCASK_BASE_DIRECTORY).listFiles())) {
+        for (File file : Objects.requireNonNull(new File(directory).listFiles())) {
             if (!file.isFile()) {
                 continue;
             }
             String fileName = file.getName();
             if (pattern.matcher(fileName).matches()) {
                 String fileID = fileName.substring(5);
+                lastFileID.accumulateAndGet(Long.parseLong(fileID), Math::max);
                 hintFileNames.add(fileName);
                 dataFileNames.remove(fileID);
             } else {
+                lastFileID.accumulateAndGet(Long.parseLong(fileName), Math::max);
                 if (!hintFileNames.contains(hintPrefix + fileName)) {
                     dataFileNames.add(fileName);
                 }
@@ -70,246 +172,1244 @@ public class BitcaskDAOImpl implements BitcaskDAO {
         }
     }
 
-    private Map<Long, KeyDirValue> loadKeyDir(Set<String> hintFileNames, Set<String> dataFileNames) {
-        Map<Long, KeyDirValue> keyDir = new HashMap<>();
+    private KeyDir loadKeyDir() {
+        Set<String> hintFileNames = new HashSet<>();
+        Set<String> dataFileNames = new HashSet<>();
 
         getCurrentFiles(hintFileNames, dataFileNames);
 
-        dataFileNames.remove(String.valueOf(activeFileID));
+        List<String> fileNames = new ArrayList<>(hintFileNames);
+        fileNames.addAll(dataFileNames);
 
-        if (!hintFileNames.isEmpty()) {
-            loadHintFiles(hintFileNames, keyDir);
-        }
+        long start = System.nanoTime();
+        AtomicLong records = new AtomicLong();
+        KeyDir keyDir = ForkJoinPool.commonPool().invoke(new LoadKeyDirTask(fileNames, records));
+        long elapsedMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
 
-        if (!dataFileNames.isEmpty()) {
-            loadDataFiles(dataFileNames, keyDir);
-        }
+        logger.info("Loaded {} keys from {} records in {} hint and {} data files in {} ms ({} records/s)",
+                keyDir.size(), records.get(), hintFileNames.size(), dataFileNames.size(), elapsedMillis,
+                records.get() * 1000 / elapsedMillis);
 
         return keyDir;
     }
 
-    private void loadHintFiles(Set<String> hintFileNames, Map<Long, KeyDirValue> keyDir) {
-        for (String hintFileName : hintFileNames) {
-            try (RandomAccessFile hintFile = new RandomAccessFile(BITCASK_BASE_DIRECTORY + "/" + hintFileName, "r")) {
-                while (hintFile.getFilePointer() < hintFile.length()) {
-                    byte[] keyBytes = new byte[KEY_SIZE];
-                    byte[] keyDirValueBytes = new byte[KeyDirValue.SIZE];
+    /**
+     * Loads every file into its own partial key directory and folds the halves together by timestamp.
+     */
+    private class LoadKeyDirTask extends RecursiveTask<KeyDir> {
+
+        private final List<String> fileNames;
+        private final AtomicLong records;
 
-                    hintFile.read(keyBytes);
-                    hintFile.read(keyDirValueBytes);
+        LoadKeyDirTask(List<String> fileNames, AtomicLong records) {
+            this.fileNames = fileNames;
+            this.records = records;
+        }
+
+        @Override
+        protected KeyDir compute() {
+            if (fileNames.size() > 1) {
+                int middle = fileNames.size() / 2;
+                LoadKeyDirTask left = new LoadKeyDirTask(fileNames.subList(0, middle), records);
+                LoadKeyDirTask right = new LoadKeyDirTask(fileNames.subList(middle, fileNames.size()), records);
 
-                    long key = ByteBuffer.wrap(keyBytes).getLong();
-                    KeyDirValue value = new KeyDirValue(keyDirValueBytes);
+                left.fork();
+                KeyDir rightKeyDir = right.compute();
+                KeyDir leftKeyDir = left.join();
 
-                    updateKeyDir(key, value, keyDir);
+                if (leftKeyDir.size() < rightKeyDir.size()) {
+                    rightKeyDir.putAllNewer(leftKeyDir);
+                    return rightKeyDir;
                 }
-            } catch (IOException e) {
-                logger.error("Failed to read from the hint file: {}", hintFileName, e);
+                leftKeyDir.putAllNewer(rightKeyDir);
+                return leftKeyDir;
             }
+
+            KeyDir keyDir = keyDirProvider.get();
+            if (!fileNames.isEmpty()) {
+                String fileName = fileNames.get(0);
+                records.addAndGet(fileName.startsWith("hint-")
+                        ? loadHintFile(fileName, keyDir)
+                        : loadDataFile(fileName, keyDir));
+            }
+            return keyDir;
         }
     }
 
-    private void loadDataFiles(Set<String> dataFileNames, Map<Long, KeyDirValue> keyDir) {
-        for (String dataFileName : dataFileNames) {
-            try (RandomAccessFile dataFile = new RandomAccessFile(BITCASK_BASE_DIRECTORY + "/" + dataFileName, "r")) {
-                while (dataFile.getFilePointer() < dataFile.length()) {
-                    long timestamp = dataFile.readLong();
+    private ByteBuffer mapForRecovery(String fileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(Path.of(directory, fileName), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
 
-                    dataFile.readShort();
-                    long key = dataFile.readLong();
+    /**
+     * A merged data file holds exactly the records listed in its hint file, so the hint file alone also gives the
+     * file's timestamp range. The data file itself is not read: a hint file that is torn or points past the end of its
+     * data file is only caught by its size, and the data file is then recovered record by record instead.
+     */
+    private long loadHintFile(String hintFileName, KeyDir keyDir) {
+        String dataFileName = hintFileName.substring("hint-".length());
+        long dataFileID = Long.parseLong(dataFileName);
+        long records = 0;
+        long minTimestamp = Long.MAX_VALUE;
+        long maxTimestamp = Long.MIN_VALUE;
 
-                    short valueSize = dataFile.readShort();
-                    long offset = dataFile.getFilePointer();
+        try {
+            ByteBuffer hintFile = mapForRecovery(hintFileName);
+            long dataFileSize = Files.size(Path.of(directory, dataFileName));
+            boolean matches = hintFile.limit() % (KEY_SIZE + KeyDirValue.SIZE) == 0;
 
-                    byte[] value = new byte[valueSize];
-                    dataFile.read(value);
-                    updateKeyDir(key, new KeyDirValue(Long.parseLong(dataFileName), valueSize, offset, timestamp), keyDir);
-                }
-            } catch (IOException e) {
-                logger.error("Failed to read from the data file: {}", dataFileName, e);
+            while (matches && hintFile.hasRemaining()) {
+                long key = hintFile.getLong();
+                long fileID = hintFile.getLong();
+                short valueSize = hintFile.getShort();
+                long valueOffset = hintFile.getLong();
+                long timestamp = hintFile.getLong();
+
+                matches = fileID == dataFileID
+                        && valueOffset >= BitcaskRecord.FILE_HEADER_SIZE + BitcaskRecord.HEADER_SIZE
+                        && valueOffset - BitcaskRecord.HEADER_SIZE + BitcaskRecord.recordSize(valueSize) <= dataFileSize;
+                keyDir.putIfNewer(key, fileID, valueSize, valueOffset, timestamp);
+                minTimestamp = Math.min(minTimestamp, timestamp);
+                maxTimestamp = Math.max(maxTimestamp, timestamp);
+                records++;
             }
+
+            if (!matches) {
+                logger.warn("The hint file {} does not match its data file, recovering from the data file", hintFileName);
+                keyDir.clear();
+                return loadDataFile(dataFileName, keyDir);
+            }
+        } catch (IOException e) {
+            logger.error("Failed to read from the hint file: {}", hintFileName, e);
         }
+
+        addRecoveredTimestamps(dataFileID, minTimestamp, maxTimestamp);
+        return records;
     }
 
-    private void createActiveFile() {
+    private long loadDataFile(String dataFileName, KeyDir keyDir) {
+        long fileID = Long.parseLong(dataFileName);
+
         try {
-            this.activeFileID = System.currentTimeMillis();
-            this.activeFile = new RandomAccessFile(BITCASK_BASE_DIRECTORY + "/" + this.activeFileID, "rws");
+            ByteBuffer dataFile = mapForRecovery(dataFileName);
+
+            if (dataFile.limit() < BitcaskRecord.FILE_HEADER_SIZE) {
+                return deleteEmptyDataFile(dataFileName);
+            }
+            if (!BitcaskRecord.hasFileHeader(dataFile)) {
+                return loadLegacyDataFile(dataFileName, dataFile, keyDir);
+            }
+
+            CRC32C checksum = new CRC32C();
+            long records = 0;
+            long minTimestamp = Long.MAX_VALUE;
+            long maxTimestamp = Long.MIN_VALUE;
+            int position = BitcaskRecord.FILE_HEADER_SIZE;
+            int recordSize;
+
+            while (position < dataFile.limit()) {
+                recordSize = BitcaskRecord.check(dataFile, position, checksum);
+                if (recordSize < 0) {
+                    recordSize = corruptedRecordSize(dataFile, position, checksum);
+                    if (recordSize < 0) {
+                        break;
+                    }
+                    logger.error("Skipping a corrupted record at offset {} of the data file: {}", position, dataFileName);
+                    position += recordSize;
+                    continue;
+                }
+
+                long timestamp = BitcaskRecord.timestamp(dataFile, position);
+
+                keyDir.putIfNewer(BitcaskRecord.key(dataFile, position), fileID, BitcaskRecord.valueSize(dataFile, position),
+                        position + BitcaskRecord.HEADER_SIZE, timestamp);
+                minTimestamp = Math.min(minTimestamp, timestamp);
+                maxTimestamp = Math.max(maxTimestamp, timestamp);
+                position += recordSize;
+                records++;
+            }
+
+            if (position == BitcaskRecord.FILE_HEADER_SIZE) {
+                return deleteEmptyDataFile(dataFileName);
+            }
+            if (position < dataFile.limit()) {
+                truncateTornTail(dataFileName, position, dataFile.limit());
+            }
+            addRecoveredTimestamps(fileID, minTimestamp, maxTimestamp);
+            return records;
         } catch (IOException e) {
-            logger.error("Failed to create the active bitcask file", e);
+            logger.error("Failed to read from the data file: {}", dataFileName, e);
+            return 0;
         }
     }
 
-    private void updateKeyDir(long key, KeyDirValue value, Map<Long, KeyDirValue> keyDir) {
-        KeyDirValue currentValue = keyDir.get(key);
+    /**
+     * Returns the size of the corrupted record at {@code position} when a valid record follows it, which means only
+     * the record's contents were damaged, a bit flip for instance. Otherwise, and at the end of the file, the rest of
+     * the file is a torn tail and -1 is returned.
+     */
+    private static int corruptedRecordSize(ByteBuffer dataFile, int position, CRC32C checksum) {
+        if (dataFile.limit() - position < BitcaskRecord.HEADER_SIZE) {
+            return -1;
+        }
 
-        if (currentValue == null || currentValue.getTimestamp() < value.getTimestamp()) {
-            keyDir.put(key, value);
+        short valueSize = BitcaskRecord.valueSize(dataFile, position);
+        if (valueSize < 0 && !BitcaskRecord.isTombstone(valueSize)) {
+            return -1;
         }
+        int recordSize = BitcaskRecord.recordSize(valueSize);
+        if (position + recordSize >= dataFile.limit()) {
+            return -1;
+        }
+        return BitcaskRecord.check(dataFile, position + recordSize, checksum) > 0 ? recordSize : -1;
     }
 
-    private synchronized void syncUpdateKeyDir(long key, KeyDirValue value) {
-        updateKeyDir(key, value, globalKeyDir);
+    /**
+     * Only called during startup recovery, before any reader can have the file mapped.
+     */
+    /**
+     * Deletes an active file that never got a whole record, such as the one every restart opens. Nothing would ever
+     * mark its bytes dead, so no merge would remove it.
+     */
+    private long deleteEmptyDataFile(String dataFileName) throws IOException {
+        Files.delete(Path.of(directory, dataFileName));
+        logger.info("Deleted the data file {} holding no records", dataFileName);
+        return 0;
     }
 
-    private void writeHintFile(Map<Long, KeyDirValue> keyDir, RandomAccessFile hintFile) throws IOException {
-        for (Map.Entry<Long, KeyDirValue> entry : keyDir.entrySet()) {
-            byte[] serializedEntry = entry.getValue().serializeEntry(entry.getKey());
-            hintFile.write(serializedEntry);
+    private void truncateTornTail(String dataFileName, int validLength, int fileLength) throws IOException {
+        try (FileChannel channel = FileChannel.open(Path.of(directory, dataFileName), StandardOpenOption.WRITE)) {
+            channel.truncate(validLength);
         }
+        logger.warn("Truncated {} bytes of torn or corrupted records at offset {} of the data file: {}",
+                fileLength - validLength, validLength, dataFileName);
     }
 
-    private void deleteFiles(Set<String> hintFileNames, Set<String> dataFileNames) {
-        for (String hintFileName : hintFileNames) {
-            File hintFile = new File(BITCASK_BASE_DIRECTORY + "/" + hintFileName);
-            dataFileNames.add(hintFileName.substring(5));
-            if (!hintFile.delete()) {
-                logger.error("Failed to delete the hint file {}", hintFileName);
+    private long loadLegacyDataFile(String dataFileName, ByteBuffer dataFile, KeyDir keyDir) {
+        long records = 0;
+        long minTimestamp = Long.MAX_VALUE;
+        long maxTimestamp = Long.MIN_VALUE;
+        long fileID = Long.parseLong(dataFileName);
+
+        while (dataFile.remaining() >= BitcaskRecord.LEGACY_HEADER_SIZE) {
+            long timestamp = dataFile.getLong();
+            short keySize = dataFile.getShort();
+            long key = dataFile.getLong();
+            short valueSize = dataFile.getShort();
+            int offset = dataFile.position();
+
+            if (keySize != KEY_SIZE || valueSize < 0 || dataFile.remaining() < valueSize) {
+                logger.error("Ignoring a truncated record at offset {} of the data file: {}", offset, dataFileName);
+                break;
             }
+            dataFile.position(offset + valueSize);
+
+            keyDir.putIfNewer(key, fileID, valueSize, offset, timestamp);
+            minTimestamp = Math.min(minTimestamp, timestamp);
+            maxTimestamp = Math.max(maxTimestamp, timestamp);
+            records++;
         }
 
-        for (String dataFileName : dataFileNames) {
-            File file = new File(BITCASK_BASE_DIRECTORY + "/" + dataFileName);
-            if (!file.delete()) {
-                logger.error("Failed to delete the data file {}", dataFileName);
-            }
+        addRecoveredTimestamps(fileID, minTimestamp, maxTimestamp);
+        return records;
+    }
+
+    private void addRecoveredTimestamps(long fileID, long minTimestamp, long maxTimestamp) {
+        if (minTimestamp <= maxTimestamp) {
+            fileStats.computeIfAbsent(fileID, id -> new DataFileStats(0, 0)).addTimestamps(minTimestamp, maxTimestamp);
         }
     }
 
-    private void initMergeTask() {
-        new Timer().schedule(new TimerTask() {
-            @Override
-            public void run() {
-                merge();
+    /**
+     * Drops the keys whose latest record, tombstones included, is older than the TTL. Every older record of such a key
+     * is expired as well, so nothing can bring it back.
+     */
+    private void dropExpiredKeys() {
+        if (options.getTtlMillis() <= 0) {
+            return;
+        }
+
+        long horizon = System.currentTimeMillis() - options.getTtlMillis();
+        KeyDir expiredKeyDir = keyDirProvider.get();
+        KeyDir.Cursor cursor = globalKeyDir.cursor();
+
+        while (cursor.next()) {
+            if (cursor.timestamp() < horizon) {
+                expiredKeyDir.put(cursor.key(), cursor.fileID(), cursor.valueSize(), cursor.valueOffset(), cursor.timestamp());
             }
-        }, MERGE_DELAY, MERGE_INTERVAL);
+        }
+
+        int dropped = globalKeyDir.removeAll(expiredKeyDir);
+        logger.info("Dropped {} keys not written in the last {} ms", dropped, options.getTtlMillis());
     }
 
-    private void merge() {
-        Set<String> hintFileNames = new HashSet<>();
-        Set<String> dataFileNames = new HashSet<>();
+    /**
+     * Everything in a data file that the recovered key directory does not point at is dead. Tombstones the key
+     * directory still points at count as live, since they keep older values from coming back.
+     */
+    private void initFileStats() {
+        Map<Long, Long> liveBytes = new HashMap<>();
+        KeyDir.Cursor cursor = globalKeyDir.cursor();
 
-        Map<Long, KeyDirValue> keyDir = loadKeyDir(hintFileNames, dataFileNames);
+        while (cursor.next()) {
+            liveBytes.merge(cursor.fileID(), (long) BitcaskRecord.recordSize(cursor.valueSize()), Long::sum);
+        }
 
-        if (keyDir.isEmpty()) {
-            return;
+        for (File file : Objects.requireNonNull(new File(directory).listFiles())) {
+            if (file.isFile() && !file.getName().startsWith("hint-")) {
+                long fileID = Long.parseLong(file.getName());
+                long totalBytes = file.length();
+                long deadBytes = totalBytes - BitcaskRecord.FILE_HEADER_SIZE - liveBytes.getOrDefault(fileID, 0L);
+
+                DataFileStats stats = fileStats.computeIfAbsent(fileID, id -> new DataFileStats(0, 0));
+                stats.addTotalBytes(totalBytes);
+                stats.addDeadBytes(Math.max(0, deadBytes));
+            }
         }
+    }
 
-        Iterator<Map.Entry<Long, KeyDirValue>> keyDirIterator = keyDir.entrySet().iterator();
+    private void markDead(long fileID, short valueSize) {
+        DataFileStats stats = fileStats.get(fileID);
 
-        long fileID = System.currentTimeMillis();
-        RandomAccessFile dataFile, hintFile;
-        Map<Long, KeyDirValue> newKeyDir = new HashMap<>();
+        if (stats != null) {
+            stats.addDeadBytes(BitcaskRecord.recordSize(valueSize));
+        }
+    }
 
+    private long nextFileID() {
+        return lastFileID.accumulateAndGet(System.currentTimeMillis(), (last, now) -> Math.max(last + 1, now));
+    }
+
+    private void createActiveFile() {
         try {
-            dataFile = new RandomAccessFile(BITCASK_BASE_DIRECTORY + "/" + fileID, "rws");
-            hintFile = new RandomAccessFile(BITCASK_BASE_DIRECTORY + "/hint-" + fileID, "rws");
+            long fileID = nextFileID();
+            Path path = Path.of(directory, String.valueOf(fileID));
+            this.activeFile = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            this.activeFileSize = activeFile.write(ByteBuffer.allocate(BitcaskRecord.FILE_HEADER_SIZE).putInt(0, BitcaskRecord.FILE_MAGIC));
+            fileStats.put(fileID, new DataFileStats(activeFileSize, 0));
+            this.activeFileID = fileID;
+
+            ActiveFileReader previousReader = activeFileReader.getAndSet(
+                    new ActiveFileReader(fileID, FileChannel.open(path, StandardOpenOption.READ)));
+            if (previousReader != null) {
+                previousReader.channel().close();
+            }
         } catch (IOException e) {
-            logger.error("Failed to create the new data and hint files during merge", e);
+            logger.error("Failed to create the active bitcask file", e);
+        }
+    }
+
+    private long writeHintFile(long fileID, KeyDir keyDir) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(keyDir.size() * (KEY_SIZE + KeyDirValue.SIZE));
+        KeyDir.Cursor cursor = keyDir.cursor();
+
+        while (cursor.next()) {
+            buffer.putLong(cursor.key())
+                    .putLong(cursor.fileID())
+                    .putShort(cursor.valueSize())
+                    .putLong(cursor.valueOffset())
+                    .putLong(cursor.timestamp());
+        }
+        buffer.flip();
+
+        Path path = Path.of(directory, "hint-" + fileID);
+        try (FileChannel hintFile = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                hintFile.write(buffer);
+            }
+            hintFile.force(false);
+        }
+        return buffer.limit();
+    }
+
+    /**
+     * Deletes the data files and their hint files, returning the number of bytes freed.
+     */
+    private long deleteFiles(long[] fileIDs) {
+        long deletedBytes = 0;
+
+        for (long fileID : fileIDs) {
+            mappedFiles.retire(fileID);
+            fileStats.remove(fileID);
+
+            File hintFile = new File(directory + "/hint-" + fileID);
+            long hintFileSize = hintFile.length();
+            if (hintFile.exists() && !hintFile.delete()) {
+                logger.error("Failed to delete the hint file hint-{}", fileID);
+            } else {
+                deletedBytes += hintFileSize;
+            }
+
+            File dataFile = new File(directory + "/" + fileID);
+            long dataFileSize = dataFile.length();
+            if (!dataFile.delete()) {
+                logger.error("Failed to delete the data file {}", fileID);
+            } else {
+                deletedBytes += dataFileSize;
+            }
+        }
+        return deletedBytes;
+    }
+
+    private void initMergeTask() {
+        mergeExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bitcask-merge");
+            thread.setDaemon(true);
+            return thread;
+        });
+        mergeExecutor.scheduleWithFixedDelay(this::mergeIfNeeded, options.getMergeDelayMillis(),
+                options.getMergeIntervalMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void mergeIfNeeded() {
+        try {
+            long[] fileIDs = selectMergeCandidates();
+            if (fileIDs.length > 0) {
+                merge(fileIDs);
+            }
+        } catch (RuntimeException e) {
+            // An escaping exception would cancel every later run of the scheduled merge.
+            logger.error("Failed to merge the bitcask files", e);
+        }
+    }
+
+    /**
+     * Returns the sorted IDs of the immutable files whose share of dead bytes reached the configured ratio, or whose
+     * records have all outlived the TTL.
+     */
+    private long[] selectMergeCandidates() {
+        long currentActiveFileID = activeFileID;
+        long horizon = expiryHorizon();
+
+        return fileStats.entrySet().stream()
+                .filter(entry -> entry.getKey() != currentActiveFileID)
+                .filter(entry -> entry.getValue().getDeadRatio() >= options.getMergeDeadRatio()
+                        || entry.getValue().getMaxTimestamp() < horizon)
+                .mapToLong(Map.Entry::getKey)
+                .sorted()
+                .toArray();
+    }
+
+    /**
+     * Returns the timestamp before which records are expired, or {@link Long#MIN_VALUE} without a TTL.
+     */
+    private long expiryHorizon() {
+        return options.getTtlMillis() > 0 ? System.currentTimeMillis() - options.getTtlMillis() : Long.MIN_VALUE;
+    }
+
+    private void merge(long[] fileIDs) {
+        long start = System.nanoTime();
+        KeyDir droppedKeyDir = keyDirProvider.get();
+        long[] locations = collectLiveLocations(fileIDs, droppedKeyDir);
+        MergeWriter mergeWriter = new MergeWriter();
+        long writtenBytes;
+
+        try {
+            writtenBytes = mergeWriter.write(fileIDs, locations);
+        } catch (IOException | InterruptedException e) {
+            logger.error("Failed to write the merged bitcask files, discarding them", e);
+            mergeWriter.discard();
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
             return;
         }
 
-        do {
-            try {
-                if (dataFile.getFilePointer() >= MAX_FILE_SIZE) {
-                    writeHintFile(newKeyDir, hintFile);
+        int relocated = globalKeyDir.relocateAll(mergeWriter.relocatedKeyDir, deadEntryTracker);
+        int dropped = dropKeys(droppedKeyDir) + dropCorruptedKeys(fileIDs, mergeWriter.corruptedLocations);
+        long reclaimedBytes = deleteFiles(fileIDs) - writtenBytes;
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        mergeStats.record(fileIDs.length, reclaimedBytes, dropped, durationMillis);
+        logger.info("Merged {} files into {} relocating {} of {} live keys and dropping {} keys in {} ms, reclaiming {} bytes; {}",
+                fileIDs.length, mergeWriter.mergedFileIDs.size(), relocated, locations.length, dropped, durationMillis,
+                reclaimedBytes, mergeStats);
+    }
+
+    /**
+     * Returns the locations of the live records in the given sorted files as {@code fileIndex << 32 | valueOffset},
+     * sorted so that every file is read once, front to back. Expired keys and tombstones that are no longer needed are
+     * put in {@code droppedKeyDir} instead.
+     */
+    private long[] collectLiveLocations(long[] fileIDs, KeyDir droppedKeyDir) {
+        long horizon = expiryHorizon();
+        long tombstoneHorizon = Math.max(horizon, oldestTimestampOutside(fileIDs));
+
+        // Only this thread repoints keys into immutable files or removes keys, so every live record of the candidates
+        // is seen here.
+        long[] locations = new long[1024];
+        int count = 0;
+        KeyDir.Cursor cursor = globalKeyDir.cursor();
+
+        while (cursor.next()) {
+            int fileIndex = Arrays.binarySearch(fileIDs, cursor.fileID());
+            if (fileIndex >= 0) {
+                if (cursor.timestamp() < horizon
+                        || (BitcaskRecord.isTombstone(cursor.valueSize()) && cursor.timestamp() < tombstoneHorizon)) {
+                    droppedKeyDir.put(cursor.key(), cursor.fileID(), cursor.valueSize(), cursor.valueOffset(),
+                            cursor.timestamp());
+                    continue;
+                }
+                if (count == locations.length) {
+                    locations = Arrays.copyOf(locations, count * 2);
+                }
+                locations[count++] = (long) fileIndex << 32 | cursor.valueOffset();
+            }
+        }
+
+        locations = Arrays.copyOf(locations, count);
+        Arrays.sort(locations);
+        return locations;
+    }
+
+    /**
+     * Returns the oldest record timestamp among the files that survive a merge of {@code fileIDs}. A tombstone older
+     * than that is the only record of its key left once the merge is done, so dropping it cannot bring back an older
+     * value on recovery.
+     */
+    private long oldestTimestampOutside(long[] fileIDs) {
+        long oldest = Long.MAX_VALUE;
+
+        for (Map.Entry<Long, DataFileStats> entry : fileStats.entrySet()) {
+            if (Arrays.binarySearch(fileIDs, entry.getKey()) < 0) {
+                oldest = Math.min(oldest, entry.getValue().getMinTimestamp());
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * Removes the keys still pointing at records that failed their checksum while being merged, since their files are
+     * deleted next. Locations are encoded as in {@link #collectLiveLocations}; the checksum covers the key, so the keys
+     * are taken from the KeyDir rather than from the records.
+     */
+    private int dropCorruptedKeys(long[] fileIDs, Set<Long> corruptedLocations) {
+        if (corruptedLocations.isEmpty()) {
+            return 0;
+        }
+
+        KeyDir corruptedKeyDir = keyDirProvider.get();
+        KeyDir.Cursor cursor = globalKeyDir.cursor();
+        while (cursor.next()) {
+            int fileIndex = Arrays.binarySearch(fileIDs, cursor.fileID());
+            if (fileIndex >= 0 && corruptedLocations.contains((long) fileIndex << 32 | cursor.valueOffset())) {
+                corruptedKeyDir.put(cursor.key(), cursor.fileID(), cursor.valueSize(), cursor.valueOffset(),
+                        cursor.timestamp());
+            }
+        }
 
-                    newKeyDir.clear();
-                    dataFile.close();
-                    hintFile.close();
+        int dropped = dropKeys(corruptedKeyDir);
+        logger.error("Dropped {} keys whose records were corrupted in the merged files", dropped);
+        return dropped;
+    }
+
+    private int dropKeys(KeyDir droppedKeyDir) {
+        int dropped = globalKeyDir.removeAll(droppedKeyDir);
+        KeyDir.Cursor cursor = droppedKeyDir.cursor();
+
+        while (cursor.next()) {
+            valueCache.invalidate(cursor.key(), cursor.timestamp());
+        }
+        return dropped;
+    }
 
-                    if (!keyDirIterator.hasNext()) {
-                        continue;
+    /**
+     * Copies live records into new data files through one reusable direct buffer. Checksummed records are copied
+     * verbatim, legacy records are re-encoded, and every output file is synced once before its hint file is written.
+     */
+    private class MergeWriter {
+
+        private final RateLimiter rateLimiter = new RateLimiter(options.getMergeRateLimit());
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+        private final CRC32C checksum = new CRC32C();
+        private final KeyDir hintKeyDir = keyDirProvider.get();
+        private final KeyDir relocatedKeyDir = keyDirProvider.get();
+        private final List<Long> mergedFileIDs = new ArrayList<>();
+        private final Set<Long> corruptedLocations = new HashSet<>();
+        private FileChannel output;
+        private long outputFileID;
+        private long outputSize;
+        private long outputMinTimestamp = Long.MAX_VALUE;
+        private long outputMaxTimestamp = Long.MIN_VALUE;
+        private long writtenBytes;
+
+        /**
+         * Returns the number of bytes written to data and hint files.
+         */
+        long write(long[] fileIDs, long[] locations) throws IOException, InterruptedException {
+            try {
+                for (long location : locations) {
+                    long fileID = fileIDs[(int) (location >>> 32)];
+                    ByteBuffer source = mappedFiles.get(fileID);
+                    int valueOffset = (int) location;
+
+                    if (BitcaskRecord.hasFileHeader(source)) {
+                        if (!copyRecord(fileID, source, valueOffset - BitcaskRecord.HEADER_SIZE)) {
+                            corruptedLocations.add(location);
+                        }
+                    } else {
+                        copyLegacyRecord(source, valueOffset);
                     }
+                }
+                if (output != null) {
+                    closeOutput();
+                }
+            } finally {
+                if (output != null) {
+                    output.close();
+                }
+            }
+            return writtenBytes;
+        }
+
+        /**
+         * Returns false when the record fails its checksum and is not copied.
+         */
+        private boolean copyRecord(long fileID, ByteBuffer source, int position) throws IOException, InterruptedException {
+            int recordSize = BitcaskRecord.check(source, position, checksum);
 
-                    fileID = System.currentTimeMillis();
-                    dataFile = new RandomAccessFile(BITCASK_BASE_DIRECTORY + "/" + fileID, "rws");
-                    hintFile = new RandomAccessFile(BITCASK_BASE_DIRECTORY + "/hint-" + fileID, "rws");
-                } else {
-                    Map.Entry<Long, KeyDirValue> entry = keyDirIterator.next();
-                    long key = entry.getKey();
-                    KeyDirValue value = entry.getValue();
+            if (recordSize < 0) {
+                logger.error("Skipping a corrupted record at offset {} of the data file: {}", position, fileID);
+                return false;
+            }
 
-                    dataFile.writeLong(value.getTimestamp());
-                    dataFile.writeShort(KEY_SIZE);
-                    dataFile.writeLong(key);
-                    dataFile.writeShort(value.getValueSize());
+            prepareOutput(recordSize);
+            append(BitcaskRecord.key(source, position), BitcaskRecord.valueSize(source, position),
+                    BitcaskRecord.timestamp(source, position));
+            buffer.put(source.slice(position, recordSize));
+            return true;
+        }
 
-                    long offset = dataFile.getFilePointer();
+        private void copyLegacyRecord(ByteBuffer source, int valueOffset) throws IOException, InterruptedException {
+            int position = valueOffset - BitcaskRecord.LEGACY_HEADER_SIZE;
+            long timestamp = source.getLong(position);
+            long key = source.getLong(position + Long.BYTES + Short.BYTES);
+            short valueSize = source.getShort(valueOffset - Short.BYTES);
 
-                    byte[] serializedValue = new byte[value.getValueSize()];
-                    RandomAccessFile randomAccessFile = new RandomAccessFile(BITCASK_BASE_DIRECTORY + "/" + value.getFileID(), "r");
-                    randomAccessFile.seek(value.getValueOffset());
-                    randomAccessFile.read(serializedValue);
-                    randomAccessFile.close();
+            prepareOutput(BitcaskRecord.HEADER_SIZE + valueSize);
+            append(key, valueSize, timestamp);
+            BitcaskRecord.put(buffer, checksum, timestamp, key, source.slice(valueOffset, valueSize));
+        }
 
-                    dataFile.write(serializedValue);
+        /**
+         * Rotates the output file once it is full and makes room in the buffer for a record of {@code recordSize}.
+         */
+        private void prepareOutput(int recordSize) throws IOException, InterruptedException {
+            if (output != null && outputSize >= options.getMaxFileSize()) {
+                closeOutput();
+            }
+            if (output == null) {
+                outputFileID = nextFileID();
+                mergedFileIDs.add(outputFileID);
+                output = FileChannel.open(Path.of(directory, String.valueOf(outputFileID)),
+                        StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                buffer.putInt(BitcaskRecord.FILE_MAGIC);
+                outputSize = BitcaskRecord.FILE_HEADER_SIZE;
+            }
+            if (buffer.remaining() < recordSize) {
+                flush();
+            }
+        }
+
+        private void append(long key, short valueSize, long timestamp) {
+            long valueOffset = outputSize + BitcaskRecord.HEADER_SIZE;
 
-                    newKeyDir.put(key, new KeyDirValue(fileID, value.getValueSize(), offset, value.getTimestamp()));
+            hintKeyDir.put(key, outputFileID, valueSize, valueOffset, timestamp);
+            relocatedKeyDir.put(key, outputFileID, valueSize, valueOffset, timestamp);
+            outputSize += BitcaskRecord.recordSize(valueSize);
+            outputMinTimestamp = Math.min(outputMinTimestamp, timestamp);
+            outputMaxTimestamp = Math.max(outputMaxTimestamp, timestamp);
+        }
+
+        private void flush() throws IOException, InterruptedException {
+            buffer.flip();
+            rateLimiter.acquire(buffer.remaining());
+            while (buffer.hasRemaining()) {
+                output.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void closeOutput() throws IOException, InterruptedException {
+            flush();
+            output.force(false);
+            output.close();
+            output = null;
+
+            writtenBytes += outputSize + writeHintFile(outputFileID, hintKeyDir);
+            hintKeyDir.clear();
+
+            DataFileStats stats = new DataFileStats(outputSize, 0);
+            stats.addTimestamps(outputMinTimestamp, outputMaxTimestamp);
+            fileStats.put(outputFileID, stats);
+            outputMinTimestamp = Long.MAX_VALUE;
+            outputMaxTimestamp = Long.MIN_VALUE;
+        }
+
+        void discard() {
+            deleteFiles(mergedFileIDs.stream().mapToLong(Long::longValue).toArray());
+        }
+    }
+
+    /* A daemon, so a JVM that exits without running the shutdown hook is not held up; close drains the queue */
+    private void initWriterThread() {
+        writerThread = new Thread(this::runWriter, "bitcask-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    private void runWriter() {
+        List<WriteRequest> batch = new ArrayList<>(MAX_WRITE_BATCH);
+        boolean stopping = false;
+
+        while (!stopping) {
+            try {
+                WriteRequest request = writeQueue.poll(options.getSyncIntervalMillis(), TimeUnit.MILLISECONDS);
+                if (request != null) {
+                    batch.add(request);
+                    writeQueue.drainTo(batch, MAX_WRITE_BATCH - 1);
+                    stopping = containsShutdown(batch);
+                    appendBatch(batch);
+                    batch.clear();
                 }
-            } catch (IOException e) {
-                logger.error("Failed to close the data and hint files", e);
+                if (stopping || (options.getSyncPolicy() == SyncPolicy.INTERVAL && unsyncedData
+                        && System.currentTimeMillis() - lastSyncTime >= options.getSyncIntervalMillis())) {
+                    sync();
+                }
+            } catch (InterruptedException e) {
+                logger.error("The bitcask writer was interrupted", e);
+                Thread.currentThread().interrupt();
                 return;
+            } catch (IOException | RuntimeException e) {
+                // The thread must survive anything, or producers block forever on the full queue.
+                logger.error("Failed to write to the bitcask file", e);
+                failUnsyncedWrites(e);
+                for (WriteRequest failed : batch) {
+                    if (failed.synced() != null) {
+                        failed.synced().completeExceptionally(e);
+                    }
+                }
+                writeBuffer.clear();
+                Arrays.fill(bufferedValues, null);
+                bufferedRecords = 0;
+                clearBufferedKeys();
+                batch.clear();
             }
-        } while (keyDirIterator.hasNext());
+        }
+        closeActiveFile();
+    }
 
+    private static boolean containsShutdown(List<WriteRequest> batch) {
+        for (WriteRequest request : batch) {
+            if (request == SHUTDOWN) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void closeActiveFile() {
         try {
-            dataFile.close();
-            writeHintFile(newKeyDir, hintFile);
-            hintFile.close();
+            activeFile.close();
+            activeFileReader.get().channel().close();
         } catch (IOException e) {
-            logger.error("Failed to close the data and hint files", e);
+            logger.error("Failed to close the active bitcask file", e);
+        }
+    }
+
+    private void appendBatch(List<WriteRequest> batch) throws IOException {
+        for (WriteRequest request : batch) {
+            long[] keys = request.keys();
+            byte[][] values = request.values();
+            boolean deduplicate = keys.length > 1 && markSuperseded(keys);
+
+            for (int i = 0; i < keys.length; i++) {
+                if (deduplicate && superseded[i]) {
+                    continue;
+                }
+                int recordSize = BitcaskRecord.HEADER_SIZE + values[i].length;
+
+                if (activeFileSize + writeBuffer.position() >= options.getMaxFileSize()) {
+                    flushWriteBuffer();
+                    sync();
+                    activeFile.close();
+                    createActiveFile();
+                } else if (writeBuffer.remaining() < recordSize || bufferedRecords == MAX_WRITE_BATCH) {
+                    flushWriteBuffer();
+                }
+
+                bufferRecord(keys[i], values[i]);
+                if (i == keys.length - 1 && request.synced() != null) {
+                    unsyncedWrites.add(request.synced());
+                }
+
+                if (options.getSyncPolicy() == SyncPolicy.RECORD) {
+                    flushWriteBuffer();
+                    sync();
+                }
+            }
+        }
+
+        flushWriteBuffer();
+        if (options.getSyncPolicy() == SyncPolicy.BATCH) {
+            sync();
+        }
+    }
+
+    private void bufferRecord(long key, byte[] value) {
+        long timestamp = nextTimestamp(key);
+        int slot = bufferedKeySlot(key);
+        bufferedKeySlots[slot] = key;
+        bufferedKeyTimestamps[slot] = timestamp;
+        bufferedKeyGenerations[slot] = bufferedKeyGeneration;
+
+        bufferedKeys[bufferedRecords] = key;
+        bufferedOffsets[bufferedRecords] = activeFileSize + writeBuffer.position() + BitcaskRecord.HEADER_SIZE;
+        bufferedTimestamps[bufferedRecords] = timestamp;
+        bufferedRecords++;
+
+        if (value == TOMBSTONE_VALUE) {
+            bufferedValueSizes[bufferedRecords - 1] = BitcaskRecord.TOMBSTONE;
+            BitcaskRecord.putTombstone(writeBuffer, writeChecksum, timestamp, key);
+        } else {
+            bufferedValueSizes[bufferedRecords - 1] = (short) value.length;
+            bufferedValues[bufferedRecords - 1] = value;
+            BitcaskRecord.put(writeBuffer, writeChecksum, timestamp, key, value);
+        }
+    }
+
+    /**
+     * Returns the wall-clock time, unless the key already has a version at or after it. The versions of a key must be
+     * strictly increasing for {@link KeyDir#putIfNewer} and {@link KeyDir#relocate}, so only a key written again within
+     * the same millisecond, or after the clock stepped back, gets a timestamp ahead of the clock. The latest version
+     * is the buffered one, or else the one in the key directory, which recovery filled from the files on disk.
+     */
+    private long nextTimestamp(long key) {
+        int slot = bufferedKeySlot(key);
+        long latest;
+
+        if (bufferedKeyGenerations[slot] == bufferedKeyGeneration) {
+            latest = bufferedKeyTimestamps[slot];
+        } else {
+            KeyDirValue current = globalKeyDir.get(key);
+            latest = current == null ? Long.MIN_VALUE : current.getTimestamp();
+        }
+        return Math.max(System.currentTimeMillis(), latest + 1);
+    }
+
+    private int bufferedKeySlot(long key) {
+        int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & (BUFFERED_KEY_SLOTS - 1);
+
+        while (bufferedKeyGenerations[slot] == bufferedKeyGeneration && bufferedKeySlots[slot] != key) {
+            slot = (slot + 1) & (BUFFERED_KEY_SLOTS - 1);
         }
+        return slot;
+    }
+
+    /**
+     * Marks in {@link #superseded} every write of the batch that a later write of the same key makes dead as soon as
+     * written, and returns whether there is any. The last write of the batch is never superseded.
+     */
+    private boolean markSuperseded(long[] keys) {
+        if (keys.length > superseded.length) {
+            superseded = new boolean[keys.length];
+        }
+        if (2 * keys.length > batchKeySlots.length) {
+            int slots = Integer.highestOneBit(2 * keys.length - 1) << 1;
+            batchKeySlots = new long[slots];
+            batchKeyGenerations = new int[slots];
+            batchKeyGeneration = 1;
+        } else if (++batchKeyGeneration == 0) {
+            Arrays.fill(batchKeyGenerations, 0);
+            batchKeyGeneration = 1;
+        }
+
+        int mask = batchKeySlots.length - 1;
+        boolean any = false;
+        for (int i = keys.length - 1; i >= 0; i--) {
+            int slot = (int) ((keys[i] * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+            while (batchKeyGenerations[slot] == batchKeyGeneration && batchKeySlots[slot] != keys[i]) {
+                slot = (slot + 1) & mask;
+            }
+
+            superseded[i] = batchKeyGenerations[slot] == batchKeyGeneration;
+            any |= superseded[i];
+            batchKeySlots[slot] = keys[i];
+            batchKeyGenerations[slot] = batchKeyGeneration;
+        }
+        return any;
+    }
+
+    private void clearBufferedKeys() {
+        if (++bufferedKeyGeneration == 0) {
+            Arrays.fill(bufferedKeyGenerations, 0);
+            bufferedKeyGeneration = 1;
+        }
+    }
+
+    /**
+     * Appends the buffered records with a single write and only then publishes them in the key directory, so a
+     * reader never sees a location that is not in the file yet.
+     */
+    private void flushWriteBuffer() throws IOException {
+        if (bufferedRecords == 0) {
+            return;
+        }
+
+        writeBuffer.flip();
+        int writtenBytes = writeBuffer.remaining();
+        while (writeBuffer.hasRemaining()) {
+            activeFile.write(writeBuffer);
+        }
+        writeBuffer.clear();
+        activeFileSize += writtenBytes;
+
+        // Timestamps only increase per key, so the buffer is not sorted by them.
+        long minTimestamp = Long.MAX_VALUE;
+        long maxTimestamp = Long.MIN_VALUE;
+        for (int i = 0; i < bufferedRecords; i++) {
+            minTimestamp = Math.min(minTimestamp, bufferedTimestamps[i]);
+            maxTimestamp = Math.max(maxTimestamp, bufferedTimestamps[i]);
+        }
+
+        DataFileStats stats = fileStats.get(activeFileID);
+        stats.addTotalBytes(writtenBytes);
+        stats.addTimestamps(minTimestamp, maxTimestamp);
+        unsyncedData = true;
+
+        globalKeyDir.putAllIfNewer(bufferedRecords, bufferedKeys, activeFileID, bufferedValueSizes, bufferedOffsets,
+                bufferedTimestamps, bufferedStored, deadEntryTracker);
 
-        for (Map.Entry<Long, KeyDirValue> entry : keyDir.entrySet()) {
-            syncUpdateKeyDir(entry.getKey(), entry.getValue());
+        for (int i = 0; i < bufferedRecords; i++) {
+            if (bufferedStored[i] && BitcaskRecord.isTombstone(bufferedValueSizes[i])) {
+                valueCache.remove(bufferedKeys[i]);
+            } else if (bufferedStored[i]) {
+                valueCache.putIfNewer(bufferedKeys[i], bufferedTimestamps[i], bufferedValues[i]);
+            }
+            bufferedValues[i] = null;
         }
+        bufferedRecords = 0;
+        clearBufferedKeys();
+    }
+
+    private void sync() throws IOException {
+        activeFile.force(false);
+        lastSyncTime = System.currentTimeMillis();
+        unsyncedData = false;
 
-        deleteFiles(hintFileNames, dataFileNames);
+        for (CompletableFuture<Void> synced : unsyncedWrites) {
+            synced.complete(null);
+        }
+        unsyncedWrites.clear();
+    }
+
+    private void failUnsyncedWrites(Exception e) {
+        for (CompletableFuture<Void> synced : unsyncedWrites) {
+            synced.completeExceptionally(e);
+        }
+        unsyncedWrites.clear();
+    }
+
+    private void enqueue(WriteRequest request) {
+        if (closed) {
+            throw new IllegalStateException("The bitcask is closed");
+        }
+        try {
+            writeQueue.put(request);
+        } catch (InterruptedException e) {
+            logger.error("Interrupted while queueing the write of {} keys", request.keys().length, e);
+            Thread.currentThread().interrupt();
+            if (request.synced() != null) {
+                request.synced().completeExceptionally(e);
+            }
+        }
+    }
+
+    /* Sizes are stored as a short, with negative ones reserved for tombstones */
+    private static void checkValue(byte[] value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Bitcask values must not be null");
+        }
+        if (value.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Bitcask values are limited to " + Short.MAX_VALUE + " bytes but got "
+                    + value.length);
+        }
     }
 
     @Override
     public void write(long key, byte[] value) {
+        checkValue(value);
+        enqueue(new WriteRequest(new long[]{key}, new byte[][]{value}, null));
+    }
+
+    @Override
+    public CompletableFuture<Void> writeDurably(long key, byte[] value) {
+        checkValue(value);
+        CompletableFuture<Void> synced = new CompletableFuture<>();
+        enqueue(new WriteRequest(new long[]{key}, new byte[][]{value}, synced));
+        return synced;
+    }
+
+    @Override
+    public void delete(long key) {
+        enqueue(new WriteRequest(new long[]{key}, new byte[][]{TOMBSTONE_VALUE}, null));
+    }
+
+    @Override
+    public void writeBatch(long[] keys, byte[][] values) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("Got " + keys.length + " keys but " + values.length + " values");
+        }
+        for (byte[] value : values) {
+            checkValue(value);
+        }
+        if (keys.length > 0) {
+            enqueue(new WriteRequest(keys, values, null));
+        }
+    }
+
+    private byte[] readValue(long fileID, long offset, int size) throws IOException {
+        ActiveFileReader reader = activeFileReader.get();
+
+        if (reader == null || reader.fileID() != fileID) {
+            return mappedFiles.read(fileID, offset, size);
+        }
+
+        ByteBuffer value = ByteBuffer.allocate(size);
         try {
-            if (activeFile.getFilePointer() >= MAX_FILE_SIZE) {
-                activeFile.close();
-                createActiveFile();
+            while (value.hasRemaining()) {
+                if (reader.channel().read(value, offset + value.position()) < 0) {
+                    throw new EOFException("Value at " + offset + " is past the end of bitcask file " + fileID);
+                }
+            }
+        } catch (ClosedChannelException e) {
+            // Either the file was rotated or an interrupted reader closed the shared channel; reopen in the latter case.
+            if (activeFileID == fileID) {
+                FileChannel channel = FileChannel.open(Path.of(directory, String.valueOf(fileID)), StandardOpenOption.READ);
+                if (!activeFileReader.compareAndSet(reader, new ActiveFileReader(fileID, channel))) {
+                    channel.close();
+                }
             }
-            short valueSize = (short) value.length;
-            long timestamp = System.currentTimeMillis();
+            throw e;
+        }
+        return value.array();
+    }
+
+    @Override
+    public byte[] read(long key) {
+        byte[] cachedValue = valueCache.get(key);
+        if (cachedValue != null) {
+            return cachedValue.clone();
+        }
 
-            activeFile.writeLong(timestamp);
-            activeFile.writeShort(KEY_SIZE);
-            activeFile.writeLong(key);
-            activeFile.writeShort(valueSize);
-            long offset = activeFile.getFilePointer();
-            activeFile.write(value);
+        for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+            KeyDirValue keyDirValue = globalKeyDir.get(key);
 
-            syncUpdateKeyDir(key, new KeyDirValue(this.activeFileID, valueSize, offset, timestamp));
-        } catch (IOException e) {
-            logger.error("Failed to write to the bitcask file", e);
+            if (keyDirValue == null || BitcaskRecord.isTombstone(keyDirValue.getValueSize())) {
+                logger.info("Key {} not found in the key directory", key);
+                return null;
+            }
+
+            try {
+                byte[] value = readValue(keyDirValue.getFileID(), keyDirValue.getValueOffset(), keyDirValue.getValueSize());
+                cacheReadValue(key, keyDirValue.getTimestamp(), value);
+                return value.clone();
+            } catch (NoSuchFileException | ClosedChannelException e) {
+                // A merge deleted the file or the active file rotated after the lookup; look the key up again.
+                logger.debug("Bitcask file {} changed under the read, retrying key: {}", keyDirValue.getFileID(), key);
+            } catch (IOException e) {
+                logger.error("Failed to read key: {} from the bitcask file", key, e);
+                return null;
+            }
         }
+
+        logger.error("Failed to read key: {} after {} attempts", key, MAX_READ_ATTEMPTS);
+        return null;
     }
 
     @Override
-    public byte[] read(long key) {
-        KeyDirValue keyDirValue = globalKeyDir.get(key);
+    public byte[][] multiGet(long[] keys) {
+        byte[][] values = new byte[keys.length][];
+        int[] indices = new int[keys.length];
+        long[] fileIDs = new long[keys.length];
+        long[] offsets = new long[keys.length];
+        short[] sizes = new short[keys.length];
+        long[] timestamps = new long[keys.length];
+        int located = 0;
 
-        if (keyDirValue == null) {
-            logger.info("Key {} not found in the key directory", key);
-            return null;
+        for (int i = 0; i < keys.length; i++) {
+            byte[] cachedValue = valueCache.get(keys[i]);
+            if (cachedValue != null) {
+                values[i] = cachedValue.clone();
+                continue;
+            }
+
+            KeyDirValue keyDirValue = globalKeyDir.get(keys[i]);
+            if (keyDirValue != null && !BitcaskRecord.isTombstone(keyDirValue.getValueSize())) {
+                indices[located] = i;
+                fileIDs[located] = keyDirValue.getFileID();
+                offsets[located] = keyDirValue.getValueOffset();
+                sizes[located] = keyDirValue.getValueSize();
+                timestamps[located] = keyDirValue.getTimestamp();
+                located++;
+            }
         }
 
-        try (RandomAccessFile randomAccessFile = new RandomAccessFile(BITCASK_BASE_DIRECTORY + "/" + keyDirValue.getFileID(), "r")) {
-            randomAccessFile.seek(keyDirValue.getValueOffset());
+        forEachInFileOrder(fileIDs, offsets, located, j -> {
+            int i = indices[j];
+            try {
+                byte[] value = readValue(fileIDs[j], offsets[j], sizes[j]);
+                cacheReadValue(keys[i], timestamps[j], value);
+                values[i] = value.clone();
+            } catch (NoSuchFileException | ClosedChannelException e) {
+                values[i] = read(keys[i]);
+            } catch (IOException e) {
+                logger.error("Failed to read key: {} from the bitcask file", keys[i], e);
+            }
+        });
+        return values;
+    }
 
-            byte[] value = new byte[keyDirValue.getValueSize()];
-            randomAccessFile.read(value);
+    /**
+     * Locations are snapshotted up front; values are read file by file and are not added to the value cache, so a
+     * full scan does not evict the hot entries.
+     */
+    @Override
+    public void scanAll(EntryConsumer consumer) {
+        int capacity = globalKeyDir.size() + 1024;
+        long[] keys = new long[capacity];
+        long[] fileIDs = new long[capacity];
+        long[] offsets = new long[capacity];
+        short[] sizes = new short[capacity];
+        int located = 0;
 
-            return value;
-        } catch (IOException e) {
-            logger.error("Failed to read key: {} from the bitcask file", key, e);
-            return null;
+        KeyDir.Cursor cursor = globalKeyDir.cursor();
+        while (cursor.next()) {
+            if (BitcaskRecord.isTombstone(cursor.valueSize())) {
+                continue;
+            }
+            if (located == keys.length) {
+                capacity = located * 2;
+                keys = Arrays.copyOf(keys, capacity);
+                fileIDs = Arrays.copyOf(fileIDs, capacity);
+                offsets = Arrays.copyOf(offsets, capacity);
+                sizes = Arrays.copyOf(sizes, capacity);
+            }
+            keys[located] = cursor.key();
+            fileIDs[located] = cursor.fileID();
+            offsets[located] = cursor.valueOffset();
+            sizes[located] = cursor.valueSize();
+            located++;
+        }
+
+        long[] scannedKeys = keys;
+        long[] scannedFileIDs = fileIDs;
+        long[] scannedOffsets = offsets;
+        short[] scannedSizes = sizes;
+
+        forEachInFileOrder(scannedFileIDs, scannedOffsets, located, i -> {
+            byte[] value;
+            try {
+                value = readValue(scannedFileIDs[i], scannedOffsets[i], scannedSizes[i]);
+            } catch (NoSuchFileException | ClosedChannelException e) {
+                value = read(scannedKeys[i]);
+            } catch (IOException e) {
+                logger.error("Failed to read key: {} from the bitcask file", scannedKeys[i], e);
+                value = null;
+            }
+
+            if (value != null) {
+                consumer.accept(scannedKeys[i], value);
+            }
+        });
+    }
+
+    /**
+     * Calls {@code action} with the index of each of the first {@code count} locations, ordered by file and then by
+     * offset so that every file is read once, front to back.
+     */
+    private static void forEachInFileOrder(long[] fileIDs, long[] offsets, int count, IntConsumer action) {
+        long[] distinctFileIDs = Arrays.stream(fileIDs, 0, count).distinct().sorted().toArray();
+
+        // Both sort keys carry the location index in their low 32 bits; files stay below 2 GiB, so offsets fit in 31.
+        long[] byFile = new long[count];
+        for (int i = 0; i < count; i++) {
+            byFile[i] = (long) Arrays.binarySearch(distinctFileIDs, fileIDs[i]) << 32 | i;
+        }
+        Arrays.sort(byFile);
+
+        long[] byOffset = new long[count];
+        int end;
+        for (int start = 0; start < count; start = end) {
+            long fileRank = byFile[start] >>> 32;
+
+            for (end = start; end < count && byFile[end] >>> 32 == fileRank; end++) {
+                int index = (int) byFile[end];
+                byOffset[end] = offsets[index] << 32 | index;
+            }
+            Arrays.sort(byOffset, start, end);
+
+            for (int i = start; i < end; i++) {
+                action.accept((int) byOffset[i]);
+            }
+        }
+    }
+
+    /**
+     * The writer publishes to the key directory before the cache, so if the key moved on while the value was being
+     * cached, the writer either already replaced it or the check below sees the newer version and backs it out.
+     */
+    private void cacheReadValue(long key, long timestamp, byte[] value) {
+        valueCache.putIfNewer(key, timestamp, value);
+
+        KeyDirValue current = globalKeyDir.get(key);
+        if (current == null || current.getTimestamp() != timestamp) {
+            valueCache.invalidate(key, timestamp);
+        }
+    }
+
+    @Override
+    public CacheStats getCacheStats() {
+        return valueCache.getStats();
+    }
+
+    @Override
+    public MergeStats getMergeStats() {
+        return mergeStats;
+    }
+
+    /* A merge in progress is interrupted and discards its output; the files it was merging stay as they are */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+
+        mergeExecutor.shutdownNow();
+        try {
+            writeQueue.put(SHUTDOWN);
+            writerThread.join(SHUTDOWN_TIMEOUT_MILLIS);
+            mergeExecutor.awaitTermination(SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            logger.error("Interrupted while closing the bitcask", e);
+            Thread.currentThread().interrupt();
+        }
+        if (writerThread.isAlive()) {
+            logger.error("The bitcask writer did not drain its queue within {} ms", SHUTDOWN_TIMEOUT_MILLIS);
+            return;
+        }
+
+        // Writes that raced with close and were queued after the shutdown marker.
+        WriteRequest request;
+        while ((request = writeQueue.poll()) != null) {
+            if (request.synced() != null) {
+                request.synced().completeExceptionally(new IllegalStateException("The bitcask is closed"));
+            }
         }
+        logger.info("Closed the bitcask; {}", mergeStats);
     }
 }
@@ -4,48 +4,129 @@ import com.google.inject.Inject;
 import com.google.inject.name.Named;
 import dao.ParquetDAO;
 import dto.StationStatusMsgDTO;
-import dto.WeatherDTO;
 import org.apache.avro.Schema;
-import org.apache.avro.generic.GenericData;
 import org.apache.commons.io.IOUtils;
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.parquet.avro.AvroParquetWriter;
 import org.apache.parquet.hadoop.ParquetFileWriter;
 import org.apache.parquet.hadoop.ParquetWriter;
-import org.apache.parquet.hadoop.metadata.CompressionCodecName;
-import org.joda.time.LocalDate;
 import org.slf4j.Logger;
+import utils.FlushStats;
+import utils.ParquetOptions;
+import utils.ParquetWriterPool;
+import utils.RollupResolution;
+import utils.StationStatusBuffer;
+import utils.WeatherRollup;
+import utils.WeatherRollupWriteSupport;
+import utils.WeatherRollups;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.reflect.Field;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 
 public class ParquetDAOImpl implements ParquetDAO {
 
     private Schema STATUS_SCHEMA;
-    private Schema WEATHER_SCHEMA;
     private static final String STATUS_SCHEMA_LOCATION = "src/main/resources/archiving_files/avroSchema.avsc";
-    private static final String WEATHER_SCHEMA_LOCATION= "src/main/resources/archiving_files/innerAvroSchema.avsc";
     public static final String ARCHIVE_DIRECTORY = "/mnt/parquet/";
+    public static final String ROLLUP_DIRECTORY = ARCHIVE_DIRECTORY + "_rollups/";
+    // Compacted files are named compacted-<id>-<n>.parquet and list the files they replace in their footer.
+    public static final String COMPACTED_PREFIX = "compacted-";
+    public static final String COMPACTED_FILES_KEY = "compaction.originals";
     private static final int BATCH_SIZE = 1000; // batch size is 10k, but when testing small functionalities: we may need to change this value.
-    private Map<Long, Map<String, List<GenericData.Record>>> buffers;
+    private static final long ROLL_CHECK_INTERVAL_MILLIS = 10 * 1000;
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 30 * 1000;
+    // Queued after the last batch to make the flush thread close every file and stop.
+    private static final Batch SHUTDOWN = new Batch(Collections.emptyMap(), 0);
+    private Map<Long, Map<String, StationStatusBuffer>> buffers;
     private int buffersSize;
+    private volatile long acceptedRows;
     private final Logger LOGGER;
+    // Full batches waiting for the flush thread; a full queue blocks the consumer.
+    private final BlockingQueue<Batch> flushQueue;
+    private final FlushStats flushStats;
+    private final Thread flushThread;
+    private boolean closed;
+    // Bounds of the day the last message fell in, so the date string is only built when the day changes.
+    private long dayStart = Long.MAX_VALUE;
+    private long dayEnd = Long.MIN_VALUE;
+    private String day;
+    // Flyweight the buffered columns are copied into on their way to the writer, owned by the flush thread.
+    private final StationStatusMsgDTO flushedStatus = new StationStatusMsgDTO();
+    private final ParquetWriterPool writerPool;
+    private long nextRollCheck;
+    // Accepted rows up to the end of the last batch the flush thread took, and the prefix of them in closed files.
+    private long flushedRows;
+    private volatile long durableRows;
+    // Open rollup windows; closed ones are written by the flush thread. They have a lock of their own, since the
+    // consumer keeps holding this one while it waits for room in the flush queue.
+    private final WeatherRollups rollups;
+    private final Object rollupLock = new Object();
+    private final ParquetOptions options;
+    private final Configuration configuration = new Configuration();
+    private final List<FileListener> fileListeners = new CopyOnWriteArrayList<>();
 
     @Inject
-    public ParquetDAOImpl(@Named("ParquetLogger") Logger LOGGER) {
+    public ParquetDAOImpl(@Named("ParquetLogger") Logger LOGGER, ParquetOptions options) {
         buffers = new HashMap<>();
         buffersSize = 0;
         this.LOGGER = LOGGER;
+        this.options = options;
         createDirectory();
         defineSchemas();
+        removeUnfinishedFiles();
+        rollups = new WeatherRollups(options.getRollupGracePeriodMillis());
+        flushQueue = new ArrayBlockingQueue<>(options.getFlushQueueCapacity());
+        flushStats = new FlushStats(flushQueue::size);
+        writerPool = new ParquetWriterPool(STATUS_SCHEMA, options, flushStats, LOGGER, this::fileClosed);
+        flushThread = new Thread(this::flushForGood, "parquet-flush");
+        flushThread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "parquet-shutdown"));
+    }
+
+    /* A full buffer on its way to the flush thread, with the number of rows accepted once it was taken */
+    private record Batch(Map<Long, Map<String, StationStatusBuffer>> buffers, long lastRow) {
+    }
+
+    public FlushStats getFlushStats() {
+        return flushStats;
+    }
+
+    public long getAcceptedRows() {
+        return acceptedRows;
+    }
+
+    public long getDurableRows() {
+        return durableRows;
+    }
+
+    public void addFileListener(FileListener listener) {
+        fileListeners.add(listener);
+    }
+
+    private void fileClosed(Path file) {
+        java.nio.file.Path closedFile = Paths.get(file.toUri().getPath());
+
+        for (FileListener listener : fileListeners) {
+            try {
+                listener.fileClosed(closedFile);
+            } catch (RuntimeException e) {
+                LOGGER.error("File listener failed on {}", closedFile, e);
+            }
+        }
     }
 
     private void createDirectory() {
@@ -54,29 +135,188 @@ public class ParquetDAOImpl implements ParquetDAO {
         }
     }
 
+    /*
+     * Files still in progress when the previous run died have no footer and cannot be read. Their rows were never
+     * counted as durable, so the consumer did not commit them and reads them again. Deleting through Hadoop takes the
+     * checksum files along; sidecars orphaned by older versions are deleted on their own.
+     */
+    private void removeUnfinishedFiles() {
+        List<java.nio.file.Path> unfinished;
+        try (Stream<java.nio.file.Path> files = Files.walk(Paths.get(ARCHIVE_DIRECTORY))) {
+            unfinished = files.filter(file -> file.toString().endsWith(ParquetWriterPool.IN_PROGRESS_SUFFIX)
+                            || file.toString().endsWith(ParquetWriterPool.IN_PROGRESS_SUFFIX + ".crc"))
+                    .sorted(Comparator.comparing(file -> file.toString().endsWith(".crc")))
+                    .toList();
+        } catch (IOException e) {
+            LOGGER.error("Failed to look for unfinished parquet files", e);
+            return;
+        }
+
+        for (java.nio.file.Path file : unfinished) {
+            try {
+                if (file.toString().endsWith(".crc")) {
+                    Files.deleteIfExists(file);
+                } else {
+                    LOGGER.warn("Removing unfinished parquet file {}", file);
+                    Path path = new Path(file.toUri());
+                    path.getFileSystem(configuration).delete(path, false);
+                }
+            } catch (IOException e) {
+                LOGGER.error("Failed to remove unfinished parquet file {}", file, e);
+            }
+        }
+    }
+
+    /* Flushes queued batches, and closes files that reached their maximum age while no batch arrives */
+    private void flushForGood() {
+        nextRollCheck = System.currentTimeMillis() + ROLL_CHECK_INTERVAL_MILLIS;
+
+        while (true) {
+            Batch batch;
+            try {
+                batch = flushQueue.poll(ROLL_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                LOGGER.error("Interrupted while waiting for parquet batches", e);
+                return;
+            }
+
+            if (batch == SHUTDOWN) {
+                closeFiles();
+                publishDurableRows();
+                flushRollups(true);
+                return;
+            }
+            if (batch != null) {
+                flushBatch(batch);
+            }
+            closeExpiredFiles();
+            publishDurableRows();
+            flushRollups(false);
+        }
+    }
+
+    /* A failed batch counts as done as well, since it would fail again; its rows are logged as lost */
+    private void flushBatch(Batch batch) {
+        long start = System.nanoTime();
+        try {
+            int rows = writeBatch(batch.buffers(), flushedRows + 1);
+            long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            flushStats.recordFlush(rows, durationMillis);
+            LOGGER.debug("Flushed {} rows to parquet in {} ms; {}", rows, durationMillis, flushStats);
+        } catch (IOException | RuntimeException e) {
+            flushStats.recordFailure();
+            LOGGER.error("Failed to flush a batch of parquet rows", e);
+        }
+        flushedRows = batch.lastRow();
+    }
+
+    /* Rows up to the first one that may sit in an open file are safe from a crash */
+    private void publishDurableRows() {
+        durableRows = Math.min(flushedRows, writerPool.oldestOpenRow() - 1);
+    }
+
+    private void closeExpiredFiles() {
+        long now = System.currentTimeMillis();
+        if (now < nextRollCheck) {
+            return;
+        }
+        nextRollCheck = now + ROLL_CHECK_INTERVAL_MILLIS;
+
+        try {
+            writerPool.closeExpired();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Failed to close expired parquet files", e);
+        }
+        synchronized (rollupLock) {
+            rollups.closeIdle(now);
+        }
+    }
+
+    /* Writes the rollup windows that closed since the last call, or all of them on shutdown */
+    private void flushRollups(boolean closeAll) {
+        List<WeatherRollup> closedRollups;
+        synchronized (rollupLock) {
+            if (closeAll) {
+                rollups.closeAll();
+            }
+            closedRollups = rollups.drainClosed();
+        }
+        if (closedRollups.isEmpty()) {
+            return;
+        }
+
+        try {
+            writeRollups(closedRollups);
+            flushStats.recordRollups(closedRollups.size());
+        } catch (IOException | RuntimeException e) {
+            flushStats.recordFailure();
+            LOGGER.error("Failed to write {} rollups to parquet", closedRollups.size(), e);
+        }
+    }
+
+    private void closeFiles() {
+        try {
+            writerPool.closeAll();
+            LOGGER.info("Closed the parquet files; {}", flushStats);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Failed to close the parquet files", e);
+        }
+    }
+
+    /* Hands the partial batch to the flush thread and waits until it closed every file */
+    private void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+
+        try {
+            submitBatch();
+            flushQueue.put(SHUTDOWN);
+            flushThread.join(SHUTDOWN_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            LOGGER.error("Interrupted while flushing parquet files on shutdown", e);
+        }
+        if (flushThread.isAlive()) {
+            LOGGER.error("Parquet files were not closed within {} ms", SHUTDOWN_TIMEOUT_MILLIS);
+        }
+    }
+
     private void defineSchemas() {
-        try(InputStream statusStream = new FileInputStream(STATUS_SCHEMA_LOCATION);
-            InputStream weatherStream= new FileInputStream(WEATHER_SCHEMA_LOCATION))
+        try(InputStream statusStream = new FileInputStream(STATUS_SCHEMA_LOCATION))
         {
             STATUS_SCHEMA = new Schema.Parser().parse(IOUtils.toString(statusStream, StandardCharsets.UTF_8));
-            WEATHER_SCHEMA = new Schema.Parser().parse(IOUtils.toString(weatherStream, StandardCharsets.UTF_8));
         } catch (IOException e) {
             LOGGER.error("Can't read SCHEMA file from {}", STATUS_SCHEMA_LOCATION);
             throw new RuntimeException(e);
         }
     }
 
-    public void writeToParquet(StationStatusMsgDTO stationStatusMsgDTO) {
+    public synchronized void writeToParquet(StationStatusMsgDTO stationStatusMsgDTO) {
+        acceptedRows++;
+        if (closed) {
+            LOGGER.error("Dropping a message written after shutdown: {}", stationStatusMsgDTO);
+            return;
+        }
         try {
             Long stationId = stationStatusMsgDTO.getStationId();
             checkStationId(stationId);
             Long timestamp = stationStatusMsgDTO.getStatusTimestamp();
             String date = checkDate(timestamp, stationId);
 
-            GenericData.Record record = createRecord(stationStatusMsgDTO);
-            writeRecord(record, stationId, date);
+            writeRecord(stationStatusMsgDTO, stationId, date);
+            boolean inTime;
+            synchronized (rollupLock) {
+                inTime = rollups.add(stationStatusMsgDTO);
+            }
+            if (!inTime) {
+                flushStats.recordLateReading();
+            }
         } catch (Exception e) {
-            System.out.println("Couldn't write to parquet!!\n" + e);
+            LOGGER.error("Failed to write a message to parquet: {}", stationStatusMsgDTO, e);
         }
     }
 
@@ -86,79 +326,109 @@ public class ParquetDAOImpl implements ParquetDAO {
             buffers.put(stationId, new HashMap<>());
     }
 
-    /* Extracting Date */
+    /* Extracting the ISO (yyyy-MM-dd) UTC date, which sorts the same way as the days */
     private String checkDate(Long time, Long stationId) {
-        LocalDate localDate = new LocalDate(new Date(time));
-        String date =
-                localDate.getDayOfMonth() + "-"
-                + localDate.getMonthOfYear() + "-"
-                + localDate.getYear();
+        if (time < dayStart || time >= dayEnd) {
+            long epochDay = Math.floorDiv(time, DAY_MILLIS);
+            day = LocalDate.ofEpochDay(epochDay).toString();
+            dayStart = epochDay * DAY_MILLIS;
+            dayEnd = dayStart + DAY_MILLIS;
+        }
+        String date = day;
 
         if(!buffers.get(stationId).containsKey(date)) {
-            buffers.get(stationId).put(date, new ArrayList<>());
+            buffers.get(stationId).put(date, new StationStatusBuffer());
         }
 
         return date;
     }
 
-    /* Generate Record */
-    private GenericData.Record createRecord(StationStatusMsgDTO dto) throws IllegalAccessException {
-        GenericData.Record record = new GenericData.Record(STATUS_SCHEMA);
-        Class<?> dtoClass = dto.getClass();
-        Field[] fields = dtoClass.getDeclaredFields();
-        for (Field field : fields) {
-            field.setAccessible(true);
-            Object value = field.get(dto);
-            if (field.getName().equals("weather")) { // Handle the nested object
-                GenericData.Record weatherRecord = new GenericData.Record(WEATHER_SCHEMA);
-                WeatherDTO weatherDTO = (WeatherDTO) value;
-                weatherRecord.put("humidity", weatherDTO.getHumidity());
-                weatherRecord.put("temperature", weatherDTO.getTemperature());
-                weatherRecord.put("windSpeed", weatherDTO.getWindSpeed());
-                record.put("weather", weatherRecord);
-            } else {
-                record.put(field.getName(), value);
+    /* The buffer copies the DTO's fields, since the consumer reuses the DTO for the next poll */
+    private void writeRecord(StationStatusMsgDTO stationStatusMsgDTO, Long stationId, String date) throws InterruptedException {
+        buffers.get(stationId).get(date).add(stationStatusMsgDTO);
+        buffersSize++;
+        if(buffersSize >= BATCH_SIZE) {
+            submitBatch();
+        }
+    }
+
+    /* Swaps in a fresh buffer, blocking while the flush thread is a full queue behind */
+    private synchronized void submitBatch() throws InterruptedException {
+        if(buffersSize == 0) {
+            return;
+        }
+
+        Batch batch = new Batch(buffers, acceptedRows);
+        buffers = new HashMap<>();
+        buffersSize = 0;
+
+        if(!flushQueue.offer(batch)) {
+            long start = System.nanoTime();
+            flushQueue.put(batch);
+            flushStats.recordBackPressure(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    /* Hive-style partition directory, so readers can prune by station and date from the path alone */
+    public static String partitionDirectory(long stationId, String date) {
+        return ARCHIVE_DIRECTORY + "station=" + stationId + "/date=" + date;
+    }
+
+    public static String rollupDirectory(RollupResolution resolution, String date) {
+        return ROLLUP_DIRECTORY + "resolution=" + resolution.getDirectoryName() + "/date=" + date;
+    }
+
+    /* One small file per resolution and day the windows start in, sorted so the station and window statistics prune */
+    private void writeRollups(List<WeatherRollup> closedRollups) throws IOException {
+        Map<String, List<WeatherRollup>> partitions = new TreeMap<>();
+        for (WeatherRollup rollup : closedRollups) {
+            String date = LocalDate.ofEpochDay(Math.floorDiv(rollup.getWindowStart(), DAY_MILLIS)).toString();
+            partitions.computeIfAbsent(rollupDirectory(rollup.getResolution(), date), partition -> new ArrayList<>())
+                    .add(rollup);
+        }
+
+        for (Map.Entry<String, List<WeatherRollup>> partition : partitions.entrySet()) {
+            List<WeatherRollup> partitionRollups = partition.getValue();
+            partitionRollups.sort(Comparator.comparingLong(WeatherRollup::getStationId)
+                    .thenComparingLong(WeatherRollup::getWindowStart));
+
+            String fileName = UUID.randomUUID().toString();
+            Path inProgressPath = new Path(partition.getKey(), fileName + ParquetWriterPool.IN_PROGRESS_SUFFIX);
+            Path path = new Path(partition.getKey(), fileName + ".parquet");
+
+            try (ParquetWriter<WeatherRollup> writer = WeatherRollupWriteSupport.builder(inProgressPath)
+                    .withConf(configuration)
+                    .withCompressionCodec(options.getCompressionCodec())
+                    .withWriteMode(ParquetFileWriter.Mode.CREATE)
+                    .build()) {
+                for (WeatherRollup rollup : partitionRollups) {
+                    writer.write(rollup);
+                }
+            }
+            if (!path.getFileSystem(configuration).rename(inProgressPath, path)) {
+                throw new IOException("Failed to rename " + inProgressPath + " to " + path);
             }
         }
-        return record;
     }
 
-    private void writeRecord(GenericData.Record record, Long stationId, String date) throws IOException {
-        buffers.get(stationId).get(date).add(record);
-        buffersSize++;
-        if(buffersSize >= BATCH_SIZE) {
-            writeBatchAndReset();
-        }
-    }
-
-    private void writeBatchAndReset() throws IOException {
-        FileSystem fs = FileSystem.get(new Configuration());
-        for(Map.Entry<Long, Map<String, List<GenericData.Record>>> entry : buffers.entrySet()) {
-            for(Map.Entry<String, List<GenericData.Record>> innerEntry : entry.getValue().entrySet()) {
-                String fileId = UUID.randomUUID().toString();
-                String path = ARCHIVE_DIRECTORY +
-                        "station_" + entry.getKey() + "/" +
-                        "day_" + innerEntry.getKey() + "/" + fileId + ".parquet";
-
-                ParquetWriter<GenericData.Record> writer;
-                writer = AvroParquetWriter
-                        .<GenericData.Record>builder(new Path(path))
-                        .withSchema(STATUS_SCHEMA)
-                        .withConf(new Configuration())
-                        .withCompressionCodec(CompressionCodecName.GZIP)
-                        .withWriteMode(ParquetFileWriter.Mode.CREATE)
-                        .build();
-                try {
-                    for(GenericData.Record record : innerEntry.getValue()) {
-                        writer.write(record);
-                    }
-                } finally {
-                    writer.close();
+    /* Appends the batch's rows to the open file of their partition, on the flush thread */
+    private int writeBatch(Map<Long, Map<String, StationStatusBuffer>> batch, long firstRow) throws IOException {
+        int rows = 0;
+
+        for(Map.Entry<Long, Map<String, StationStatusBuffer>> entry : batch.entrySet()) {
+            for(Map.Entry<String, StationStatusBuffer> innerEntry : entry.getValue().entrySet()) {
+                String partition = partitionDirectory(entry.getKey(), innerEntry.getKey());
+
+                StationStatusBuffer buffer = innerEntry.getValue();
+                buffer.sortByTimestamp();
+                for(int i = 0; i < buffer.size(); i++) {
+                    buffer.copyTo(i, flushedStatus);
+                    writerPool.write(partition, flushedStatus, firstRow);
                 }
+                rows += buffer.size();
             }
         }
-        buffers = new HashMap<>();
-        buffersSize = 0;
+        return rows;
     }
 
 }
@@ -0,0 +1,384 @@
+package dao.Impl;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import dao.ParquetQueryDAO;
+import dto.WeatherAggregateDTO;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.HadoopReadOptions;
+import org.apache.parquet.ParquetReadOptions;
+import org.apache.parquet.column.ColumnDescriptor;
+import org.apache.parquet.column.ColumnReader;
+import org.apache.parquet.column.impl.ColumnReadStoreImpl;
+import org.apache.parquet.column.page.PageReadStore;
+import org.apache.parquet.example.data.simple.convert.GroupRecordConverter;
+import org.apache.parquet.filter2.compat.FilterCompat;
+import org.apache.parquet.filter2.predicate.FilterApi;
+import org.apache.parquet.filter2.predicate.FilterPredicate;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.util.HadoopInputFile;
+import org.apache.parquet.schema.GroupType;
+import org.apache.parquet.schema.MessageType;
+import org.slf4j.Logger;
+import utils.RollupResolution;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Answers aggregate queries over the Parquet archive without reading more of it than needed:
+ * <ul>
+ *     <li>partitions are pruned by the station and date in their directory names,</li>
+ *     <li>row groups and pages whose {@code statusTimestamp} statistics miss the range are skipped,</li>
+ *     <li>only the timestamp and the aggregated weather columns are decoded, straight from the column readers,</li>
+ *     <li>the remaining files are scanned in parallel on the common fork-join pool.</li>
+ * </ul>
+ * Closed rollup windows are read the same way from {@code _rollups/resolution=<hour|day>/date=<day>}; rows of the same
+ * window are merged by summing, since a window can be written more than once.
+ * <p>
+ * Files of the older {@code station_<id>/day_<d-m-yyyy>} layout are still read, pruned with a day of slack since their
+ * dates were local.
+ * <p>
+ * Compaction may swap a partition's files while it is queried. A compacted file and the originals it lists are never
+ * both read, following the order in which compaction renames and deletes them. When a listed file is deleted before it
+ * is opened, the partition is listed and scanned again, so the rows that moved to the compacted files are counted.
+ */
+public class ParquetQueryDAOImpl implements ParquetQueryDAO {
+
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
+    private static final int MAX_PARTITION_SCANS = 5;
+    private static final DateTimeFormatter LEGACY_DAY_FORMAT = DateTimeFormatter.ofPattern("d-M-yyyy");
+    private static final String[] TIMESTAMP_PATH = {"statusTimestamp"};
+    private static final String[] TEMPERATURE_PATH = {"weather", "temperature"};
+    private static final String[] HUMIDITY_PATH = {"weather", "humidity"};
+    private static final String[] ROLLUP_COLUMNS = {"stationId", "windowStart", "readings", "minTemperature",
+            "maxTemperature", "sumTemperature", "minHumidity", "maxHumidity", "sumHumidity"};
+
+    private final Logger logger;
+    private final Configuration configuration = new Configuration();
+
+    @Inject
+    public ParquetQueryDAOImpl(@Named("ParquetQueryLogger") Logger logger) {
+        this.logger = logger;
+    }
+
+    @Override
+    public WeatherAggregateDTO aggregateWeather(long stationId, long fromTimestamp, long toTimestamp) throws IOException {
+        long start = System.nanoTime();
+        List<Path> partitions = findPartitions(stationId, fromTimestamp, toTimestamp);
+        FilterPredicate range = FilterApi.and(
+                FilterApi.gtEq(FilterApi.longColumn("statusTimestamp"), fromTimestamp),
+                FilterApi.lt(FilterApi.longColumn("statusTimestamp"), toTimestamp));
+
+        WeatherAccumulator result = scanPartitions(partitions, file -> scan(file, range, fromTimestamp, toTimestamp));
+
+        logger.info("Aggregated {} readings of station {} from {} files in {} partitions in {} ms", result.readings,
+                stationId, result.files, partitions.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return result.toDTO(stationId, fromTimestamp, toTimestamp);
+    }
+
+    @Override
+    public WeatherAggregateDTO aggregateRollups(long stationId, RollupResolution resolution, long fromTimestamp,
+                                                long toTimestamp) throws IOException {
+        long start = System.nanoTime();
+        long lastWindowStart = toTimestamp - resolution.getMillis();
+        List<Path> partitions = new ArrayList<>();
+        addPartitions(partitions, Paths.get(ParquetDAOImpl.ROLLUP_DIRECTORY, "resolution=" + resolution.getDirectoryName()),
+                "date=", DateTimeFormatter.ISO_LOCAL_DATE, fromTimestamp, lastWindowStart + 1);
+        FilterPredicate windows = FilterApi.and(
+                FilterApi.eq(FilterApi.longColumn("stationId"), stationId),
+                FilterApi.and(
+                        FilterApi.gtEq(FilterApi.longColumn("windowStart"), fromTimestamp),
+                        FilterApi.ltEq(FilterApi.longColumn("windowStart"), lastWindowStart)));
+
+        WeatherAccumulator result = scanPartitions(partitions,
+                file -> scanRollups(file, windows, stationId, fromTimestamp, lastWindowStart));
+
+        logger.info("Aggregated {} readings of station {} from {} {} rollup files in {} ms", result.readings, stationId,
+                result.files, resolution.getDirectoryName(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return result.toDTO(stationId, fromTimestamp, toTimestamp);
+    }
+
+    private List<Path> findPartitions(long stationId, long fromTimestamp, long toTimestamp) {
+        List<Path> partitions = new ArrayList<>();
+
+        addPartitions(partitions, Paths.get(ParquetDAOImpl.ARCHIVE_DIRECTORY, "station=" + stationId), "date=",
+                DateTimeFormatter.ISO_LOCAL_DATE, fromTimestamp, toTimestamp);
+        addPartitions(partitions, Paths.get(ParquetDAOImpl.ARCHIVE_DIRECTORY, "station_" + stationId), "day_",
+                LEGACY_DAY_FORMAT, fromTimestamp - DAY_MILLIS, toTimestamp + DAY_MILLIS);
+        return partitions;
+    }
+
+    private void addPartitions(List<Path> partitions, Path directory, String prefix, DateTimeFormatter dayFormat,
+                               long fromTimestamp, long toTimestamp) {
+        File[] dayDirectories = directory.toFile().listFiles(File::isDirectory);
+        if (dayDirectories == null) {
+            return;
+        }
+
+        for (File dayDirectory : dayDirectories) {
+            String name = dayDirectory.getName();
+            if (!name.startsWith(prefix)) {
+                continue;
+            }
+
+            long dayStart;
+            try {
+                dayStart = LocalDate.parse(name.substring(prefix.length()), dayFormat).toEpochDay() * DAY_MILLIS;
+            } catch (DateTimeParseException e) {
+                logger.warn("Skipping archive directory with an unexpected name: {}", dayDirectory);
+                continue;
+            }
+            if (dayStart + DAY_MILLIS <= fromTimestamp || dayStart >= toTimestamp) {
+                continue;
+            }
+            partitions.add(dayDirectory.toPath());
+        }
+    }
+
+    private WeatherAccumulator scanPartitions(List<Path> partitions, Function<Path, WeatherAccumulator> scanner)
+            throws IOException {
+        try {
+            return partitions.parallelStream()
+                    .map(partition -> scanPartition(partition, scanner))
+                    .reduce(new WeatherAccumulator(), WeatherAccumulator::combine);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /* The scanner returns null for a file deleted before it was opened, which compaction only does after a swap */
+    private WeatherAccumulator scanPartition(Path partition, Function<Path, WeatherAccumulator> scanner) {
+        for (int scans = 1; ; scans++) {
+            List<WeatherAccumulator> results = listPartition(partition).parallelStream().map(scanner).toList();
+            if (!results.contains(null)) {
+                WeatherAccumulator result = results.stream().reduce(new WeatherAccumulator(), WeatherAccumulator::combine);
+                result.files = results.size();
+                return result;
+            }
+            if (scans == MAX_PARTITION_SCANS) {
+                throw new UncheckedIOException(new IOException(
+                        "Partition " + partition + " was compacted during each of " + scans + " scans"));
+            }
+            logger.debug("Scanning {} again, compacted during the query", partition);
+        }
+    }
+
+    private List<Path> listPartition(Path partition) {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(partition)) {
+            files = listing.filter(file -> file.getFileName().toString().endsWith(".parquet"))
+                    .collect(Collectors.toList());
+            removeReplacedFiles(files);
+        } catch (NoSuchFileException e) {
+            return List.of();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to list archive partition " + partition, e);
+        }
+        return files;
+    }
+
+    /*
+     * A partition caught in a compaction swap holds rows twice. The first compacted file, compacted-<id>-0, is renamed
+     * last: once it is there, the originals listed in the footers are dropped, and before that the compacted files are
+     * dropped instead.
+     */
+    private void removeReplacedFiles(List<Path> files) throws IOException {
+        List<Path> compacted = files.stream()
+                .filter(file -> file.getFileName().toString().startsWith(ParquetDAOImpl.COMPACTED_PREFIX))
+                .collect(Collectors.toList());
+        if (compacted.isEmpty() || compacted.size() == files.size()) {
+            return;
+        }
+
+        for (Path file : compacted) {
+            String originals;
+            try (ParquetFileReader reader = ParquetFileReader.open(
+                    HadoopInputFile.fromPath(new org.apache.hadoop.fs.Path(file.toString()), configuration))) {
+                originals = reader.getFileMetaData().getKeyValueMetaData().get(ParquetDAOImpl.COMPACTED_FILES_KEY);
+            } catch (FileNotFoundException | NoSuchFileException e) {
+                files.remove(file);
+                continue;
+            }
+            if (originals == null) {
+                continue;
+            }
+
+            String name = file.getFileName().toString();
+            if (!files.contains(file.resolveSibling(name.substring(0, name.lastIndexOf('-')) + "-0.parquet"))) {
+                files.remove(file);
+                continue;
+            }
+            for (String original : originals.split(",")) {
+                files.remove(file.resolveSibling(original));
+            }
+        }
+    }
+
+    private ParquetFileReader open(Path file, FilterPredicate filter) throws IOException {
+        ParquetReadOptions readOptions = HadoopReadOptions.builder(configuration)
+                .withRecordFilter(FilterCompat.get(filter))
+                .build();
+
+        return ParquetFileReader.open(
+                HadoopInputFile.fromPath(new org.apache.hadoop.fs.Path(file.toString()), configuration), readOptions);
+    }
+
+    private WeatherAccumulator scan(Path file, FilterPredicate range, long fromTimestamp, long toTimestamp) {
+        WeatherAccumulator accumulator = new WeatherAccumulator();
+
+        try (ParquetFileReader reader = open(file, range)) {
+            MessageType projection = projection(reader.getFileMetaData().getSchema());
+            ColumnDescriptor timestampColumn = projection.getColumnDescription(TIMESTAMP_PATH);
+            ColumnDescriptor temperatureColumn = projection.getColumnDescription(TEMPERATURE_PATH);
+            ColumnDescriptor humidityColumn = projection.getColumnDescription(HUMIDITY_PATH);
+            String createdBy = reader.getFileMetaData().getCreatedBy();
+
+            reader.setRequestedSchema(projection);
+
+            // Row groups whose statistics miss the range were dropped when the reader opened; pages are filtered here.
+            PageReadStore rowGroup;
+            while ((rowGroup = reader.readNextFilteredRowGroup()) != null) {
+                ColumnReadStoreImpl columns = new ColumnReadStoreImpl(rowGroup,
+                        new GroupRecordConverter(projection).getRootConverter(), projection, createdBy);
+                ColumnReader timestamps = columns.getColumnReader(timestampColumn);
+                ColumnReader temperatures = columns.getColumnReader(temperatureColumn);
+                ColumnReader humidities = columns.getColumnReader(humidityColumn);
+
+                for (long row = 0; row < rowGroup.getRowCount(); row++) {
+                    long timestamp = timestamps.getLong();
+                    if (timestamp >= fromTimestamp && timestamp < toTimestamp) {
+                        accumulator.add(temperatures.getInteger(), humidities.getInteger());
+                    } else {
+                        // A reader only moves past a value it has read or skipped.
+                        temperatures.skip();
+                        humidities.skip();
+                    }
+                    timestamps.consume();
+                    temperatures.consume();
+                    humidities.consume();
+                }
+            }
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to scan parquet file " + file, e);
+        }
+        return accumulator;
+    }
+
+    private WeatherAccumulator scanRollups(Path file, FilterPredicate windows, long stationId, long fromTimestamp,
+                                           long lastWindowStart) {
+        WeatherAccumulator accumulator = new WeatherAccumulator();
+
+        try (ParquetFileReader reader = open(file, windows)) {
+            MessageType schema = reader.getFileMetaData().getSchema();
+            String createdBy = reader.getFileMetaData().getCreatedBy();
+
+            PageReadStore rowGroup;
+            while ((rowGroup = reader.readNextFilteredRowGroup()) != null) {
+                ColumnReadStoreImpl columnStore = new ColumnReadStoreImpl(rowGroup,
+                        new GroupRecordConverter(schema).getRootConverter(), schema, createdBy);
+                ColumnReader[] columns = new ColumnReader[ROLLUP_COLUMNS.length];
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i] = columnStore.getColumnReader(schema.getColumnDescription(new String[]{ROLLUP_COLUMNS[i]}));
+                }
+
+                for (long row = 0; row < rowGroup.getRowCount(); row++) {
+                    long windowStart = columns[1].getLong();
+                    if (columns[0].getLong() == stationId && windowStart >= fromTimestamp && windowStart <= lastWindowStart) {
+                        accumulator.add(columns[2].getLong(),
+                                columns[3].getInteger(), columns[4].getInteger(), columns[5].getLong(),
+                                columns[6].getInteger(), columns[7].getInteger(), columns[8].getLong());
+                    } else {
+                        for (int i = 2; i < columns.length; i++) {
+                            columns[i].skip();
+                        }
+                    }
+                    for (ColumnReader column : columns) {
+                        column.consume();
+                    }
+                }
+            }
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to scan rollup file " + file, e);
+        }
+        return accumulator;
+    }
+
+    private static MessageType projection(MessageType schema) {
+        GroupType weather = schema.getType("weather").asGroupType();
+
+        return new MessageType(schema.getName(),
+                schema.getType("statusTimestamp"),
+                new GroupType(weather.getRepetition(), weather.getName(),
+                        weather.getType("humidity"), weather.getType("temperature")));
+    }
+
+    private static final class WeatherAccumulator {
+
+        int files;
+        long readings;
+        int minTemperature = Integer.MAX_VALUE;
+        int maxTemperature = Integer.MIN_VALUE;
+        long sumTemperature;
+        int minHumidity = Integer.MAX_VALUE;
+        int maxHumidity = Integer.MIN_VALUE;
+        long sumHumidity;
+
+        void add(int temperature, int humidity) {
+            add(1, temperature, temperature, temperature, humidity, humidity, humidity);
+        }
+
+        void add(long readings, int minTemperature, int maxTemperature, long sumTemperature,
+                 int minHumidity, int maxHumidity, long sumHumidity) {
+            this.readings += readings;
+            this.minTemperature = Math.min(this.minTemperature, minTemperature);
+            this.maxTemperature = Math.max(this.maxTemperature, maxTemperature);
+            this.sumTemperature += sumTemperature;
+            this.minHumidity = Math.min(this.minHumidity, minHumidity);
+            this.maxHumidity = Math.max(this.maxHumidity, maxHumidity);
+            this.sumHumidity += sumHumidity;
+        }
+
+        WeatherAccumulator combine(WeatherAccumulator other) {
+            WeatherAccumulator combined = new WeatherAccumulator();
+            combined.files = files + other.files;
+            combined.readings = readings + other.readings;
+            combined.minTemperature = Math.min(minTemperature, other.minTemperature);
+            combined.maxTemperature = Math.max(maxTemperature, other.maxTemperature);
+            combined.sumTemperature = sumTemperature + other.sumTemperature;
+            combined.minHumidity = Math.min(minHumidity, other.minHumidity);
+            combined.maxHumidity = Math.max(maxHumidity, other.maxHumidity);
+            combined.sumHumidity = sumHumidity + other.sumHumidity;
+            return combined;
+        }
+
+        WeatherAggregateDTO toDTO(long stationId, long fromTimestamp, long toTimestamp) {
+            if (readings == 0) {
+                return new WeatherAggregateDTO(stationId, fromTimestamp, toTimestamp, 0,
+                        null, null, null, null, null, null);
+            }
+            return new WeatherAggregateDTO(stationId, fromTimestamp, toTimestamp, readings,
+                    minTemperature, maxTemperature, (double) sumTemperature / readings,
+                    minHumidity, maxHumidity, (double) sumHumidity / readings);
+        }
+    }
+}
@@ -1,8 +1,35 @@
 package dao;
 
 import dto.StationStatusMsgDTO;
+import utils.FlushStats;
+
+import java.nio.file.Path;
 
 public interface ParquetDAO {
 
     void writeToParquet(StationStatusMsgDTO stationStatusMsgDTO);
+
+    FlushStats getFlushStats();
+
+    /**
+     * Number of statuses handed to {@link #writeToParquet} so far, counting the ones it failed to write.
+     */
+    long getAcceptedRows();
+
+    /**
+     * Number of accepted statuses, counted from the first, that are all in complete files or failed for good, so a
+     * crash can no longer lose them. The rest are still buffered or in files being written.
+     */
+    long getDurableRows();
+
+    void addFileListener(FileListener listener);
+
+    /**
+     * Told about every file of station statuses once it is complete under its final name, on the thread that wrote it;
+     * rollup files are not reported.
+     */
+    interface FileListener {
+
+        void fileClosed(Path file);
+    }
 }
@@ -0,0 +1,21 @@
+package dao;
+
+import dto.WeatherAggregateDTO;
+import utils.RollupResolution;
+
+import java.io.IOException;
+
+public interface ParquetQueryDAO {
+
+    /**
+     * Aggregates the archived readings of the station with {@code fromTimestamp <= statusTimestamp < toTimestamp}.
+     */
+    WeatherAggregateDTO aggregateWeather(long stationId, long fromTimestamp, long toTimestamp) throws IOException;
+
+    /**
+     * Aggregates the station's closed rollup windows that lie wholly inside the range, reading one row per window
+     * instead of one per reading. Readings of windows still open are not included.
+     */
+    WeatherAggregateDTO aggregateRollups(long stationId, RollupResolution resolution, long fromTimestamp,
+                                         long toTimestamp) throws IOException;
+}
@@ -0,0 +1,33 @@
+package dto;
+
+import lombok.*;
+
+/**
+ * Minimum, maximum and average of a station's archived weather readings over a time range; they are null when no
+ * reading matched.
+ */
+@Getter
+@AllArgsConstructor
+@ToString
+public class WeatherAggregateDTO {
+
+    long stationId;
+
+    long fromTimestamp;
+
+    long toTimestamp;
+
+    long readings;
+
+    Integer minTemperature;
+
+    Integer maxTemperature;
+
+    Double avgTemperature;
+
+    Integer minHumidity;
+
+    Integer maxHumidity;
+
+    Double avgHumidity;
+}
@@ -0,0 +1,300 @@
+package mapper;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import dto.StationStatusMsgDTO;
+import dto.WeatherDTO;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes a weather station's JSON message, in the shape of {@link dto.CompactStationMsgDTO}, straight into a reusable
+ * {@link StationStatusMsgDTO} without Jackson's data binding.
+ * <p>
+ * Messages in the shape the weather stations send, known fields with plain numbers and unescaped strings, are scanned
+ * byte by byte without allocating. Anything else, unknown fields or escapes for instance, falls back to Jackson's
+ * streaming parser, which costs ~600 bytes of parser state per message. Instances are not thread-safe.
+ */
+public class CompactStationMsgParser {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final String[] BATTERY_STATUSES = {"low", "medium", "high"};
+    private static final byte[][] BATTERY_STATUS_BYTES = {ascii("low"), ascii("medium"), ascii("high")};
+    private static final byte[] SEQUENCE_NUMBER = ascii("s_no");
+    private static final byte[] BATTERY_STATUS = ascii("battery_status");
+    private static final byte[] WEATHER = ascii("weather");
+    private static final byte[] HUMIDITY = ascii("humidity");
+    private static final byte[] TEMPERATURE = ascii("temperature");
+    private static final byte[] WIND_SPEED = ascii("wind_speed");
+    private static final byte[] NULL = ascii("null");
+    private static final int MAX_LONG_DIGITS = 18;
+
+    private byte[] json;
+    private int position;
+    private int tokenStart;
+    private int tokenEnd;
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Overwrites every field of {@code target} with the message, reusing its weather holder when it has one.
+     */
+    public void parse(byte[] json, long stationId, long statusTimestamp, StationStatusMsgDTO target) throws IOException {
+        WeatherDTO weather = target.getWeather() != null ? target.getWeather() : new WeatherDTO();
+
+        target.setStationId(stationId);
+        target.setStatusTimestamp(statusTimestamp);
+        reset(target, weather);
+
+        if (!scan(json, target, weather)) {
+            reset(target, weather);
+            parseStreaming(json, target, weather);
+        }
+    }
+
+    private static void reset(StationStatusMsgDTO target, WeatherDTO weather) {
+        target.setSequenceNumber(0);
+        target.setBatteryStatus(null);
+        target.setWeather(null);
+        weather.setHumidity(0);
+        weather.setTemperature(0);
+        weather.setWindSpeed(0);
+    }
+
+    /**
+     * Returns false as soon as the message leaves the expected shape, leaving the rest to the streaming parser.
+     */
+    private boolean scan(byte[] json, StationStatusMsgDTO target, WeatherDTO weather) {
+        this.json = json;
+        this.position = 0;
+
+        if (!consume('{')) {
+            return false;
+        }
+        if (consume('}')) {
+            return atEnd();
+        }
+
+        do {
+            if (!scanString() || !consume(':')) {
+                return false;
+            }
+
+            if (tokenEquals(SEQUENCE_NUMBER)) {
+                if (!scanNumber()) {
+                    return false;
+                }
+                target.setSequenceNumber(number());
+            } else if (tokenEquals(BATTERY_STATUS)) {
+                if (consumeLiteral(NULL)) {
+                    target.setBatteryStatus(null);
+                    continue;
+                }
+                int status = scanString() ? batteryStatusIndex() : -1;
+                if (status < 0) {
+                    return false;
+                }
+                target.setBatteryStatus(BATTERY_STATUSES[status]);
+            } else if (tokenEquals(WEATHER)) {
+                if (!scanWeather(weather)) {
+                    return false;
+                }
+                target.setWeather(weather);
+            } else {
+                return false;
+            }
+        } while (consume(','));
+
+        return consume('}') && atEnd();
+    }
+
+    private boolean scanWeather(WeatherDTO weather) {
+        if (!consume('{')) {
+            return false;
+        }
+        if (consume('}')) {
+            return true;
+        }
+
+        do {
+            if (!scanString() || !consume(':')) {
+                return false;
+            }
+            boolean humidity = tokenEquals(HUMIDITY);
+            boolean temperature = tokenEquals(TEMPERATURE);
+            boolean windSpeed = tokenEquals(WIND_SPEED);
+
+            if (!(humidity || temperature || windSpeed) || !scanNumber()) {
+                return false;
+            }
+
+            long value = number();
+            if (value != (int) value) {
+                return false;
+            }
+            if (humidity) {
+                weather.setHumidity((int) value);
+            } else if (temperature) {
+                weather.setTemperature((int) value);
+            } else {
+                weather.setWindSpeed((int) value);
+            }
+        } while (consume(','));
+
+        return consume('}');
+    }
+
+    private void skipWhitespace() {
+        while (position < json.length
+                && (json[position] == ' ' || json[position] == '\n' || json[position] == '\r' || json[position] == '\t')) {
+            position++;
+        }
+    }
+
+    private boolean consume(char expected) {
+        skipWhitespace();
+        if (position < json.length && json[position] == expected) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean consumeLiteral(byte[] literal) {
+        skipWhitespace();
+        if (json.length - position < literal.length) {
+            return false;
+        }
+        for (int i = 0; i < literal.length; i++) {
+            if (json[position + i] != literal[i]) {
+                return false;
+            }
+        }
+        position += literal.length;
+        return true;
+    }
+
+    private boolean atEnd() {
+        skipWhitespace();
+        return position == json.length;
+    }
+
+    /**
+     * Marks the contents of a string without escapes as the current token.
+     */
+    private boolean scanString() {
+        if (!consume('"')) {
+            return false;
+        }
+        tokenStart = position;
+        while (position < json.length && json[position] != '"') {
+            if (json[position] == '\\') {
+                return false;
+            }
+            position++;
+        }
+        if (position == json.length) {
+            return false;
+        }
+        tokenEnd = position++;
+        return true;
+    }
+
+    /**
+     * Marks an integer that fits in a long as the current token.
+     */
+    private boolean scanNumber() {
+        skipWhitespace();
+        tokenStart = position;
+        if (position < json.length && json[position] == '-') {
+            position++;
+        }
+
+        int digitsStart = position;
+        while (position < json.length && json[position] >= '0' && json[position] <= '9') {
+            position++;
+        }
+        tokenEnd = position;
+
+        int digits = tokenEnd - digitsStart;
+        if (digits == 0 || digits > MAX_LONG_DIGITS) {
+            return false;
+        }
+        // Fractions and exponents are left to the streaming parser.
+        return position == json.length || (json[position] != '.' && json[position] != 'e' && json[position] != 'E');
+    }
+
+    private long number() {
+        boolean negative = json[tokenStart] == '-';
+        long value = 0;
+
+        for (int i = negative ? tokenStart + 1 : tokenStart; i < tokenEnd; i++) {
+            value = value * 10 + (json[i] - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    private boolean tokenEquals(byte[] expected) {
+        if (tokenEnd - tokenStart != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (json[tokenStart + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int batteryStatusIndex() {
+        for (int i = 0; i < BATTERY_STATUS_BYTES.length; i++) {
+            if (tokenEquals(BATTERY_STATUS_BYTES[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void parseStreaming(byte[] json, StationStatusMsgDTO target, WeatherDTO weather) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a JSON object in station message but got " + parser.currentToken());
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken token = parser.nextToken();
+
+                switch (field) {
+                    case "s_no" -> target.setSequenceNumber(parser.getLongValue());
+                    case "battery_status" -> target.setBatteryStatus(token == JsonToken.VALUE_NULL ? null : parser.getText());
+                    case "weather" -> {
+                        if (token == JsonToken.START_OBJECT) {
+                            parseStreamingWeather(parser, weather);
+                            target.setWeather(weather);
+                        }
+                    }
+                    default -> parser.skipChildren();
+                }
+            }
+        }
+    }
+
+    private static void parseStreamingWeather(JsonParser parser, WeatherDTO weather) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+
+            switch (field) {
+                case "humidity" -> weather.setHumidity(parser.getIntValue());
+                case "temperature" -> weather.setTemperature(parser.getIntValue());
+                case "wind_speed" -> weather.setWindSpeed(parser.getIntValue());
+                default -> parser.skipChildren();
+            }
+        }
+    }
+}
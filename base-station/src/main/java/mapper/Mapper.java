@@ -1,8 +1,8 @@
 package mapper;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import dto.CompactStationMsgDTO;
 import dto.StationStatusMsgDTO;
+import dto.WeatherAggregateDTO;
 
 import java.io.IOException;
 
@@ -11,14 +11,6 @@ public interface Mapper {
 
     ObjectMapper mapper = new ObjectMapper();
 
-    default CompactStationMsgDTO deserializeCompactStationMsg(byte[] byteArray) throws IOException {
-        return mapper.readValue(byteArray, CompactStationMsgDTO.class);
-    }
-
-    StationStatusMsgDTO compactStationMsgToStationStatusMsg(CompactStationMsgDTO compactStationMsgDTO,
-                                                            long stationId,
-                                                            long statusTimestamp);
-
     default byte[] serializeStationStatusMsg(StationStatusMsgDTO stationStatusMsgDTO) throws IOException {
         return mapper.writeValueAsBytes(stationStatusMsgDTO);
     }
@@ -26,4 +18,32 @@ public interface Mapper {
     default StationStatusMsgDTO deserializeStationStatusMsg(byte[] byteArray) throws IOException {
         return mapper.readValue(byteArray, StationStatusMsgDTO.class);
     }
+
+    default byte[] serializeWeatherAggregate(WeatherAggregateDTO weatherAggregateDTO) throws IOException {
+        return mapper.writeValueAsBytes(weatherAggregateDTO);
+    }
+
+    /**
+     * Encodes the message for bitcask, in the binary layout of {@link StationStatusCodec} when it fits and as JSON
+     * otherwise.
+     */
+    default byte[] encodeStationStatusMsg(StationStatusMsgDTO stationStatusMsgDTO) throws IOException {
+        byte[] encoded = StationStatusCodec.encode(stationStatusMsgDTO);
+        return encoded != null ? encoded : serializeStationStatusMsg(stationStatusMsgDTO);
+    }
+
+    default StationStatusMsgDTO decodeStationStatusMsg(byte[] byteArray) throws IOException {
+        return StationStatusCodec.isJson(byteArray)
+                ? deserializeStationStatusMsg(byteArray)
+                : StationStatusCodec.decode(byteArray);
+    }
+
+    /**
+     * Returns a bitcask value as JSON, copying values that are stored as JSON already.
+     */
+    default byte[] stationStatusMsgToJson(byte[] byteArray) throws IOException {
+        return StationStatusCodec.isJson(byteArray)
+                ? byteArray
+                : serializeStationStatusMsg(StationStatusCodec.decode(byteArray));
+    }
 }
@@ -0,0 +1,10 @@
+package service;
+
+import utils.CompactionStats;
+
+public interface ArchiveCompactionService {
+
+    void start();
+
+    CompactionStats getCompactionStats();
+}
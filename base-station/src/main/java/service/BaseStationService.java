@@ -2,7 +2,14 @@ package service;
 
 import dto.StationStatusMsgDTO;
 
+import java.util.List;
+
 public interface BaseStationService {
 
     void serveMessage(StationStatusMsgDTO stationStatusMsgDTO);
+
+    /**
+     * The messages may be reused by the caller once this returns, so implementations must copy what they keep.
+     */
+    void serveMessages(List<StationStatusMsgDTO> stationStatusMsgDTOs);
 }
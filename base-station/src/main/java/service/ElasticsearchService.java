@@ -1,6 +1,26 @@
 package service;
 
+import utils.IndexingStats;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
 public interface ElasticsearchService {
 
     void start();
+
+    IndexingStats getIndexingStats();
+
+    /**
+     * Replaces indexed archive files by files holding the same records without indexing any record twice: unless one
+     * of the originals is not indexed yet, {@code swap} runs while no file is being indexed and the replacements are
+     * recorded as indexed in place of the originals. Returns whether the swap ran.
+     */
+    boolean replaceIndexedFiles(List<Path> originals, List<Path> replacements, FileSwap swap) throws IOException;
+
+    interface FileSwap {
+
+        void run() throws IOException;
+    }
 }
@@ -0,0 +1,460 @@
+package service.Impl;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import dao.Impl.ParquetDAOImpl;
+import dto.StationStatusMsgDTO;
+import dto.WeatherDTO;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.parquet.avro.AvroParquetReader;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.ParquetFileWriter;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.example.GroupReadSupport;
+import org.apache.parquet.hadoop.util.HadoopInputFile;
+import org.slf4j.Logger;
+import service.ArchiveCompactionService;
+import service.ElasticsearchService;
+import utils.CompactionStats;
+import utils.ParquetOptions;
+import utils.ParquetWriterPool;
+import utils.RollupResolution;
+import utils.StationStatusBuffer;
+import utils.StationStatusWriteSupport;
+import utils.WeatherRollup;
+import utils.WeatherRollupWriteSupport;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Rewrites every closed day partition of the archive, raw statuses and rollups alike, into one or a few files sorted
+ * by time, so a day is not spread over hundreds of small files with a footer each.
+ * <p>
+ * The compacted files are written under an in-progress name and swapped in through
+ * {@link ElasticsearchService#replaceIndexedFiles}, which waits until the originals are indexed and keeps the indexer
+ * from reading any of the files while they are renamed and deleted. Each compacted file lists its originals in its
+ * footer, and the first compacted file, {@code compacted-<id>-0}, is renamed last, so it only exists once all of them
+ * do. The next run after a crash in the middle of a swap deletes the originals when it finds that file, and otherwise
+ * the compacted files already renamed, which only duplicate the originals. Compacted files still in progress are
+ * deleted whenever a compaction fails, and by the next run after a crash.
+ * <p>
+ * A pass reads at most {@link ParquetOptions#getCompactionMaxFiles()} files into memory, the smallest first, and
+ * merges them through a priority queue keyed on each file's next timestamp.
+ */
+public class ArchiveCompactionServiceImpl implements ArchiveCompactionService {
+
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
+    private static final String PARQUET_SUFFIX = ".parquet";
+
+    @Inject
+    @Named("ArchiveCompactionLogger")
+    private Logger logger;
+    @Inject
+    private ParquetOptions options;
+    @Inject
+    private ElasticsearchService elasticsearchService;
+
+    private final CompactionStats compactionStats = new CompactionStats();
+    private final Configuration configuration = new Configuration();
+
+    @Override
+    public void start() {
+        Thread thread = new Thread(this::compactForGood, "parquet-compaction");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public CompactionStats getCompactionStats() {
+        return compactionStats;
+    }
+
+    private void compactForGood() {
+        while (true) {
+            compactClosedPartitions();
+            sleepSafely(options.getCompactionIntervalMillis());
+        }
+    }
+
+    private void sleepSafely(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            logger.error("Failed to sleep", e);
+        }
+    }
+
+    private void compactClosedPartitions() {
+        long closedBefore = System.currentTimeMillis() - options.getCompactionDelayMillis();
+
+        for (Path partition : closedPartitions(Paths.get(ParquetDAOImpl.ARCHIVE_DIRECTORY), "station=", closedBefore)) {
+            compact(partition, false);
+        }
+        for (Path partition : closedPartitions(Paths.get(ParquetDAOImpl.ROLLUP_DIRECTORY), "resolution=", closedBefore)) {
+            compact(partition, true);
+        }
+    }
+
+    /* The date= directories under root/<prefix>*, whose day ended before closedBefore */
+    private List<Path> closedPartitions(Path root, String prefix, long closedBefore) {
+        List<Path> partitions = new ArrayList<>();
+        File[] parents = root.toFile().listFiles(file -> file.isDirectory() && file.getName().startsWith(prefix));
+        if (parents == null) {
+            return partitions;
+        }
+
+        for (File parent : parents) {
+            File[] days = parent.listFiles(file -> file.isDirectory() && file.getName().startsWith("date="));
+            if (days == null) {
+                continue;
+            }
+            for (File day : days) {
+                try {
+                    long dayStart = LocalDate.parse(day.getName().substring("date=".length())).toEpochDay() * DAY_MILLIS;
+                    if (dayStart + DAY_MILLIS <= closedBefore) {
+                        partitions.add(day.toPath());
+                    }
+                } catch (DateTimeParseException e) {
+                    logger.warn("Skipping archive directory with an unexpected name: {}", day);
+                }
+            }
+        }
+        return partitions;
+    }
+
+    private void compact(Path partition, boolean rollups) {
+        String name = ParquetDAOImpl.COMPACTED_PREFIX + UUID.randomUUID();
+        boolean writing = false;
+        try {
+            List<Path> files;
+            try (Stream<Path> listing = Files.list(partition)) {
+                files = listing.sorted().collect(Collectors.toList());
+            }
+            for (Path file : files) {
+                if (isInProgress(file, ParquetDAOImpl.COMPACTED_PREFIX)) {
+                    logger.warn("Removing {}, left behind by a compaction cut short by a crash", file);
+                    delete(file);
+                }
+            }
+            files.removeIf(file -> isInProgress(file, ParquetDAOImpl.COMPACTED_PREFIX));
+            // A file still being written means late rows are arriving; the partition is compacted on a later run.
+            if (files.stream().anyMatch(file -> file.toString().endsWith(ParquetWriterPool.IN_PROGRESS_SUFFIX))) {
+                return;
+            }
+            files.removeIf(file -> !file.toString().endsWith(PARQUET_SUFFIX));
+            if (files.size() < 2) {
+                return;
+            }
+
+            files = smallest(removeCompactedOriginals(files), options.getCompactionMaxFiles());
+            if (files.size() < 2) {
+                return;
+            }
+
+            long bytesIn = size(files);
+            writing = true;
+            Map<String, String> footer = Map.of(ParquetDAOImpl.COMPACTED_FILES_KEY, files.stream()
+                    .map(file -> file.getFileName().toString())
+                    .collect(Collectors.joining(",")));
+            List<Path> inProgress = rollups
+                    ? writeRollups(partition, files, name, footer)
+                    : writeStatuses(partition, files, name, footer);
+            List<Path> compacted = inProgress.stream().map(ArchiveCompactionServiceImpl::finishedPath)
+                    .collect(Collectors.toList());
+            List<Path> originals = files;
+            ElasticsearchService.FileSwap swap = () -> {
+                for (int i = inProgress.size() - 1; i >= 0; i--) {
+                    rename(inProgress.get(i), compacted.get(i));
+                }
+                for (Path file : originals) {
+                    delete(file);
+                }
+            };
+
+            // Rollups are not indexed, so they are swapped right away.
+            if (rollups) {
+                swap.run();
+            } else if (!elasticsearchService.replaceIndexedFiles(originals, compacted, swap)) {
+                logger.debug("Postponing the compaction of {} until its files are indexed", partition);
+                return;
+            }
+
+            long bytesOut = size(compacted);
+            compactionStats.recordCompaction(files.size(), compacted.size(), bytesIn, bytesOut);
+            logger.info("Compacted {} files ({} bytes) of {} into {} ({} bytes); {}", files.size(), bytesIn, partition,
+                    compacted.size(), bytesOut, compactionStats);
+        } catch (IOException | RuntimeException e) {
+            compactionStats.recordFailure();
+            logger.error("Failed to compact {}", partition, e);
+        } finally {
+            // Whatever was not renamed into place, since a partition holding them is never compacted again.
+            if (writing) {
+                deleteInProgress(partition, name);
+            }
+        }
+    }
+
+    private void deleteInProgress(Path partition, String name) {
+        try (Stream<Path> listing = Files.list(partition)) {
+            for (Path file : listing.filter(file -> isInProgress(file, name)).collect(Collectors.toList())) {
+                delete(file);
+            }
+        } catch (IOException e) {
+            logger.error("Failed to delete the unfinished compacted files of {}", partition, e);
+        }
+    }
+
+    private static boolean isInProgress(Path file, String prefix) {
+        String name = file.getFileName().toString();
+        return name.startsWith(prefix) && name.endsWith(ParquetWriterPool.IN_PROGRESS_SUFFIX);
+    }
+
+    private static List<Path> smallest(List<Path> files, int count) throws IOException {
+        if (files.size() <= count) {
+            return files;
+        }
+
+        Map<Path, Long> sizes = new HashMap<>();
+        for (Path file : files) {
+            sizes.put(file, Files.size(file));
+        }
+        return files.stream()
+                .sorted(Comparator.comparingLong(sizes::get))
+                .limit(count)
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    /*
+     * Finishes swaps cut short by a crash: once the first compacted file exists, the originals listed in the footers
+     * are in the compacted files; before that, the compacted files renamed so far are rolled back
+     */
+    private List<Path> removeCompactedOriginals(List<Path> files) throws IOException {
+        List<Path> remaining = new ArrayList<>(files);
+
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            if (!name.startsWith(ParquetDAOImpl.COMPACTED_PREFIX) || !remaining.contains(file)) {
+                continue;
+            }
+
+            String originals;
+            try (ParquetFileReader reader = ParquetFileReader.open(HadoopInputFile.fromPath(hadoopPath(file), configuration))) {
+                originals = reader.getFileMetaData().getKeyValueMetaData().get(ParquetDAOImpl.COMPACTED_FILES_KEY);
+            }
+            if (originals == null) {
+                continue;
+            }
+
+            String first = name.substring(0, name.lastIndexOf('-')) + "-0" + PARQUET_SUFFIX;
+            if (!remaining.contains(file.resolveSibling(first))) {
+                logger.warn("Removing {}, left behind by an interrupted compaction before it was complete", file);
+                remaining.remove(file);
+                delete(file);
+                continue;
+            }
+
+            for (String original : originals.split(",")) {
+                Path originalPath = file.resolveSibling(original);
+                if (remaining.remove(originalPath)) {
+                    logger.warn("Removing {}, left behind by an interrupted compaction", originalPath);
+                    delete(originalPath);
+                }
+            }
+        }
+        return remaining;
+    }
+
+    /* Each file was written in timestamp order, so merging them keeps the compacted files sorted */
+    private List<Path> writeStatuses(Path partition, List<Path> files, String name, Map<String, String> footer)
+            throws IOException {
+        List<StationStatusBuffer> buffers = new ArrayList<>();
+        Schema schema = null;
+        StationStatusMsgDTO status = new StationStatusMsgDTO(0, 0, null, 0, new WeatherDTO());
+
+        for (Path file : files) {
+            StationStatusBuffer buffer = new StationStatusBuffer();
+            try (ParquetReader<GenericRecord> reader = AvroParquetReader.<GenericRecord>builder(
+                    HadoopInputFile.fromPath(hadoopPath(file), configuration))
+                    .withDataModel(GenericData.get())
+                    .withConf(configuration)
+                    .build()) {
+                GenericRecord record;
+                while ((record = reader.read()) != null) {
+                    schema = record.getSchema();
+                    GenericRecord weather = (GenericRecord) record.get("weather");
+                    status.setStationId((Long) record.get("stationId"));
+                    status.setSequenceNumber((Long) record.get("sequenceNumber"));
+                    status.setBatteryStatus(record.get("batteryStatus").toString());
+                    status.setStatusTimestamp((Long) record.get("statusTimestamp"));
+                    status.getWeather().setHumidity((Integer) weather.get("humidity"));
+                    status.getWeather().setTemperature((Integer) weather.get("temperature"));
+                    status.getWeather().setWindSpeed((Integer) weather.get("windSpeed"));
+                    buffer.add(status);
+                }
+            }
+            buffer.sortByTimestamp();
+            buffers.add(buffer);
+        }
+
+        List<Path> written = new ArrayList<>();
+        if (schema == null) {
+            return written;
+        }
+
+        // Buffer indices, ordered by the timestamp of each buffer's next row.
+        int[] positions = new int[buffers.size()];
+        PriorityQueue<Integer> cursors = new PriorityQueue<>(Math.max(1, buffers.size()),
+                Comparator.comparingLong(i -> buffers.get(i).getStatusTimestamp(positions[i])));
+        for (int i = 0; i < buffers.size(); i++) {
+            if (buffers.get(i).size() > 0) {
+                cursors.add(i);
+            }
+        }
+
+        ParquetWriter<StationStatusMsgDTO> writer = null;
+        try {
+            while (!cursors.isEmpty()) {
+                int next = cursors.poll();
+
+                if (writer == null) {
+                    Path path = partition.resolve(name + "-" + written.size() + ParquetWriterPool.IN_PROGRESS_SUFFIX);
+                    writer = StationStatusWriteSupport.builder(hadoopPath(path), schema)
+                            .withExtraMetaData(footer)
+                            .withConf(configuration)
+                            .withCompressionCodec(options.getCompressionCodec())
+                            .withRowGroupSize(options.getRowGroupSize())
+                            .withPageSize(options.getPageSize())
+                            .withDictionaryEncoding(options.isDictionaryEncoding())
+                            .withWriteMode(ParquetFileWriter.Mode.CREATE)
+                            .build();
+                    written.add(path);
+                }
+
+                buffers.get(next).copyTo(positions[next]++, status);
+                writer.write(status);
+                if (positions[next] < buffers.get(next).size()) {
+                    cursors.add(next);
+                }
+
+                if (writer.getDataSize() >= options.getTargetFileSize()) {
+                    writer.close();
+                    writer = null;
+                }
+            }
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+        return written;
+    }
+
+    /* Rows of the same window, written before and after a restart or a late reading, are merged into one */
+    private List<Path> writeRollups(Path partition, List<Path> files, String name, Map<String, String> footer)
+            throws IOException {
+        String resolutionDirectory = partition.getParent().getFileName().toString();
+        RollupResolution resolution = RollupResolution.fromDirectoryName(
+                resolutionDirectory.substring(resolutionDirectory.indexOf('=') + 1));
+        List<WeatherRollup> rows = new ArrayList<>();
+
+        for (Path file : files) {
+            try (ParquetReader<Group> reader = ParquetReader.builder(new GroupReadSupport(), hadoopPath(file))
+                    .withConf(configuration)
+                    .build()) {
+                Group group;
+                while ((group = reader.read()) != null) {
+                    WeatherRollup row = new WeatherRollup(group.getLong("stationId", 0), resolution,
+                            group.getLong("windowStart", 0));
+                    row.merge(group.getLong("readings", 0),
+                            group.getInteger("minTemperature", 0), group.getInteger("maxTemperature", 0),
+                            group.getLong("sumTemperature", 0),
+                            group.getInteger("minHumidity", 0), group.getInteger("maxHumidity", 0),
+                            group.getLong("sumHumidity", 0));
+                    rows.add(row);
+                }
+            }
+        }
+        rows.sort(Comparator.comparingLong(WeatherRollup::getStationId).thenComparingLong(WeatherRollup::getWindowStart));
+
+        Path path = partition.resolve(name + "-0" + ParquetWriterPool.IN_PROGRESS_SUFFIX);
+        try (ParquetWriter<WeatherRollup> writer = WeatherRollupWriteSupport.builder(hadoopPath(path))
+                .withExtraMetaData(footer)
+                .withConf(configuration)
+                .withCompressionCodec(options.getCompressionCodec())
+                .withWriteMode(ParquetFileWriter.Mode.CREATE)
+                .build()) {
+            WeatherRollup merged = null;
+            for (WeatherRollup row : rows) {
+                if (merged != null && merged.getStationId() == row.getStationId()
+                        && merged.getWindowStart() == row.getWindowStart()) {
+                    merged.merge(row.getReadings(), row.getMinTemperature(), row.getMaxTemperature(),
+                            row.getSumTemperature(), row.getMinHumidity(), row.getMaxHumidity(), row.getSumHumidity());
+                    continue;
+                }
+                if (merged != null) {
+                    writer.write(merged);
+                }
+                merged = row;
+            }
+            if (merged != null) {
+                writer.write(merged);
+            }
+        }
+        return List.of(path);
+    }
+
+    /* Through the Hadoop file system, which keeps the checksum files next to the data files in step */
+    private void rename(Path source, Path target) throws IOException {
+        FileSystem fileSystem = hadoopPath(source).getFileSystem(configuration);
+        if (!fileSystem.rename(hadoopPath(source), hadoopPath(target))) {
+            throw new IOException("Failed to rename " + source + " to " + target);
+        }
+    }
+
+    private void delete(Path file) throws IOException {
+        FileSystem fileSystem = hadoopPath(file).getFileSystem(configuration);
+        if (!fileSystem.delete(hadoopPath(file), false)) {
+            throw new IOException("Failed to delete " + file);
+        }
+    }
+
+    private static Path finishedPath(Path inProgress) {
+        String name = inProgress.getFileName().toString();
+        return inProgress.resolveSibling(
+                name.substring(0, name.length() - ParquetWriterPool.IN_PROGRESS_SUFFIX.length()) + PARQUET_SUFFIX);
+    }
+
+    private static org.apache.hadoop.fs.Path hadoopPath(Path path) {
+        return new org.apache.hadoop.fs.Path(path.toString());
+    }
+
+    private static long size(List<Path> files) throws IOException {
+        long size = 0;
+        for (Path file : files) {
+            size += Files.size(file);
+        }
+        return size;
+    }
+}
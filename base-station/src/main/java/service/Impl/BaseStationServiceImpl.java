@@ -10,6 +10,8 @@ import org.slf4j.Logger;
 import service.BaseStationService;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 
 public class BaseStationServiceImpl implements BaseStationService {
 
@@ -26,19 +28,31 @@ public class BaseStationServiceImpl implements BaseStationService {
 
     @Override
     public void serveMessage(StationStatusMsgDTO stationStatusMsgDTO) {
+        serveMessages(List.of(stationStatusMsgDTO));
+    }
 
-        // save the message to bitcask
-        long key = stationStatusMsgDTO.getStationId();
-        byte[] value = null;
-        try {
-            value = mapper.serializeStationStatusMsg(stationStatusMsgDTO);
-        } catch (IOException e) {
-            logger.error("Failed to serialize message: {}", stationStatusMsgDTO, e);
+    @Override
+    public void serveMessages(List<StationStatusMsgDTO> stationStatusMsgDTOs) {
+
+        // save the latest status of every station to bitcask in one batch
+        long[] keys = new long[stationStatusMsgDTOs.size()];
+        byte[][] values = new byte[stationStatusMsgDTOs.size()][];
+        int serialized = 0;
+
+        for (StationStatusMsgDTO stationStatusMsgDTO : stationStatusMsgDTOs) {
+            try {
+                values[serialized] = mapper.encodeStationStatusMsg(stationStatusMsgDTO);
+                keys[serialized++] = stationStatusMsgDTO.getStationId();
+            } catch (IOException e) {
+                logger.error("Failed to serialize message: {}", stationStatusMsgDTO, e);
+            }
         }
 
-        bitcaskDAO.write(key, value);
+        bitcaskDAO.writeBatch(Arrays.copyOf(keys, serialized), Arrays.copyOf(values, serialized));
 
-        // save the message to parquet files
-        parquetDAO.writeToParquet(stationStatusMsgDTO);
+        // save the messages to parquet files
+        for (StationStatusMsgDTO stationStatusMsgDTO : stationStatusMsgDTOs) {
+            parquetDAO.writeToParquet(stationStatusMsgDTO);
+        }
     }
 }
@@ -4,32 +4,43 @@ import com.google.inject.Inject;
 import com.google.inject.name.Named;
 
 import dao.Impl.ParquetDAOImpl;
+import dao.ParquetDAO;
 
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericRecord;
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpHost;
-import org.apache.http.entity.ContentType;
-import org.apache.http.nio.entity.NStringEntity;
 import org.apache.parquet.avro.AvroParquetReader;
 import org.apache.parquet.hadoop.ParquetReader;
-import org.elasticsearch.client.Request;
-import org.elasticsearch.client.Response;
-import org.elasticsearch.client.RestClient;
 import org.slf4j.Logger;
 import service.ElasticsearchService;
+import utils.BulkIndexer;
+import utils.ElasticsearchOptions;
+import utils.IndexCheckpoint;
+import utils.IndexingStats;
 
 import java.io.IOException;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+/**
+ * Indexes the archive files the Parquet DAO reports as closed, plus, once on startup, the files missing from the
+ * checkpoint. A file enters the checkpoint once Elasticsearch acknowledged its records, and every record is indexed
+ * under an id derived from its station, sequence number and timestamp, so a file indexed twice after a crash
+ * overwrites its documents instead of duplicating them.
+ */
 public class ElasticsearchServiceImpl implements ElasticsearchService {
 
     private static final String ARCHIVE_PATH = ParquetDAOImpl.ARCHIVE_DIRECTORY;
-    private final Set<Path> parquetFiles = new HashSet<>();
+    private static final long IDLE_WAIT_MILLIS = 60 * 1000;
+    private static final int RETRY_DELAY_MILLIS = 10 * 1000;
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 30 * 1000;
+    // Held while a file is being indexed or the checkpoint changes, which keeps compaction from swapping files then.
+    private final Object indexLock = new Object();
+    private final BlockingQueue<Path> closedFiles = new LinkedBlockingQueue<>();
     private static final String SCHEMA_JSON = "{"
             + "\"type\": \"record\","
             + "\"name\": \"StationStatusMsgDTO\","
@@ -53,85 +64,189 @@ public class ElasticsearchServiceImpl implements ElasticsearchService {
     @Named("ElasticsearchLogger")
     private Logger logger;
 
+    @Inject
+    private ElasticsearchOptions options;
+
+    @Inject
+    private ParquetDAO parquetDAO;
+
     private Schema avroSchema;
+    private BulkIndexer bulkIndexer;
+    private IndexCheckpoint checkpoint;
+    private Thread indexerThread;
 
     @Override
     public void start() {
         avroSchema = new Schema.Parser().parse(SCHEMA_JSON);
-        Thread thread = new Thread(this::indexForGood);
-        thread.start();
+        try {
+            checkpoint = IndexCheckpoint.open(Paths.get(options.getCheckpointPath()));
+        } catch (IOException e) {
+            logger.error("Can't open the index checkpoint at {}", options.getCheckpointPath());
+            throw new RuntimeException(e);
+        }
+        bulkIndexer = new BulkIndexer(options, logger);
+        parquetDAO.addFileListener(closedFiles::add);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "elasticsearch-shutdown"));
+        indexerThread = new Thread(this::indexForGood, "elasticsearch-indexer");
+        indexerThread.start();
+    }
+
+    @Override
+    public IndexingStats getIndexingStats() {
+        return bulkIndexer.getIndexingStats();
+    }
+
+    /* Files left unacknowledged are not in the checkpoint, so the next start indexes them again */
+    private void close() {
+        indexerThread.interrupt();
+        try {
+            indexerThread.join(SHUTDOWN_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            logger.error("Interrupted while stopping the indexer", e);
+        }
+        try {
+            bulkIndexer.close();
+        } catch (IOException e) {
+            logger.error("Failed to close the bulk indexer", e);
+        }
+        synchronized (indexLock) {
+            try {
+                checkpoint.close();
+            } catch (IOException e) {
+                logger.error("Failed to close the index checkpoint", e);
+            }
+        }
     }
 
     private void indexForGood() {
-        while (true) {
-            indexParquetFiles();
+        queueUnindexedFiles();
+
+        while (!Thread.currentThread().isInterrupted()) {
+            Set<Path> batch = new LinkedHashSet<>();
+            try {
+                batch.add(closedFiles.take());
+                closedFiles.drainTo(batch);
+                indexParquetFiles(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                logger.error("Failed to index parquet files", e);
+                sleepSafely(RETRY_DELAY_MILLIS);
+                closedFiles.addAll(batch);
+            }
         }
     }
 
-    private void indexParquetFiles () {
+    /* Files closed while the service was down, or before the last run got them acknowledged */
+    private void queueUnindexedFiles() {
         try {
             List<Path> parquetFiles = findParquetFiles(ARCHIVE_PATH);
+            int indexed;
+            synchronized (indexLock) {
+                parquetFiles.removeIf(checkpoint::contains);
+                indexed = checkpoint.size();
+            }
+            logger.info("{} parquet files indexed already, {} to index", indexed, parquetFiles.size());
+            closedFiles.addAll(parquetFiles);
+        } catch (IOException e) {
+            logger.error("Failed to look for unindexed parquet files", e);
+        }
+    }
 
-            for (Path parquetFile : parquetFiles) {
-                if (this.parquetFiles.contains(parquetFile)) {
+    private void indexParquetFiles(Set<Path> batch) throws InterruptedException, IOException {
+        List<Path> submitted = new ArrayList<>();
+        List<Path> unreadable = new ArrayList<>();
+        long dropped = bulkIndexer.getIndexingStats().getDocumentsDropped();
+
+        for (Path parquetFile : batch) {
+            synchronized (indexLock) {
+                // Compaction may have replaced the file since it was queued.
+                if (checkpoint.contains(parquetFile) || !Files.exists(parquetFile)) {
                     continue;
                 }
-                List<String> records = readRecords(parquetFile.toString());
-                indexRecords(records);
-                this.parquetFiles.add(parquetFile);
+                try {
+                    indexRecords(parquetFile.toString());
+                    submitted.add(parquetFile);
+                } catch (IOException | RuntimeException e) {
+                    logger.error("Failed to read parquet file: {}", parquetFile, e);
+                    unreadable.add(parquetFile);
+                }
             }
-        } catch (Exception e) {
-            logger.error("Failed to index parquet files", e);
         }
-        sleepSafely(10000);
+        if (!submitted.isEmpty()) {
+            awaitAcknowledgements(submitted, dropped);
+        }
+        if (!unreadable.isEmpty()) {
+            // Left out of the checkpoint; the records read before the failure are overwritten by the next attempt.
+            logger.error("Reading {} parquet files again in {} ms", unreadable.size(), RETRY_DELAY_MILLIS);
+            sleepSafely(RETRY_DELAY_MILLIS);
+            closedFiles.addAll(unreadable);
+        }
+    }
+
+    private void awaitAcknowledgements(List<Path> submitted, long dropped) throws InterruptedException, IOException {
+        while (!bulkIndexer.awaitIdle(IDLE_WAIT_MILLIS)) {
+            logger.warn("Still waiting for Elasticsearch to acknowledge {} parquet files; {}", submitted.size(),
+                    bulkIndexer.getIndexingStats());
+        }
+        if (bulkIndexer.getIndexingStats().getDocumentsDropped() > dropped) {
+            // Documents ran out of retries; indexing the files again later overwrites those that made it.
+            logger.error("Indexing {} parquet files again in {} ms", submitted.size(), RETRY_DELAY_MILLIS);
+            sleepSafely(RETRY_DELAY_MILLIS);
+            closedFiles.addAll(submitted);
+            return;
+        }
+        synchronized (indexLock) {
+            checkpoint.markIndexed(submitted);
+        }
+        logger.debug("Indexed {} parquet files; {}", submitted.size(), bulkIndexer.getIndexingStats());
     }
 
+    @Override
+    public boolean replaceIndexedFiles(List<Path> originals, List<Path> replacements, FileSwap swap) throws IOException {
+        synchronized (indexLock) {
+            if (!checkpoint.containsAll(originals)) {
+                return false;
+            }
+            swap.run();
+            checkpoint.replace(originals, replacements);
+            return true;
+        }
+    }
 
     private void sleepSafely(int millis) {
         try {
             Thread.sleep(millis);
         } catch (InterruptedException e) {
-            logger.error("Failed to sleep", e);
+            Thread.currentThread().interrupt();
         }
     }
 
+    /* Station statuses only; the rollups next to them have a schema of their own */
     public static List<Path> findParquetFiles(String startDir) throws IOException {
+        Path rollups = Paths.get(ParquetDAOImpl.ROLLUP_DIRECTORY);
+
         try (Stream<Path> stream = Files.walk(Paths.get(startDir), FileVisitOption.FOLLOW_LINKS)) {
             return stream
                     .filter(file -> !Files.isDirectory(file))
+                    .filter(file -> !file.startsWith(rollups))
                     .filter(file -> file.toString().endsWith(".parquet"))
                     .collect(Collectors.toList());
         }
     }
 
-    private List<String> readRecords(String parquetFile) throws IOException {
-        List<String> records = new ArrayList<>();
-
+    private void indexRecords(String parquetFile) throws InterruptedException, IOException {
         try (ParquetReader<GenericRecord> reader = AvroParquetReader.<GenericRecord>builder(new org.apache.hadoop.fs.Path(parquetFile)).withDataModel(GenericData.get()).build()) {
             GenericRecord nextRecord;
 
             while ((nextRecord = reader.read()) != null) {
-                records.add(nextRecord.toString());
+                bulkIndexer.add(documentId(nextRecord), nextRecord.toString());
             }
-        } catch (Exception e) {
-            logger.error("Failed to read parquet file: {}", parquetFile, e);
         }
-
-        return records;
     }
 
-    private void indexRecords(List<String> records) {
-        try (RestClient restClient = RestClient.builder(new HttpHost("elasticsearch-service", 9200, "http")).build()) {
-            Response response = null;
-            for (String record : records) {
-                HttpEntity entity = new NStringEntity(record, ContentType.APPLICATION_JSON);
-                Request request = new Request("POST", "/data/_doc");
-                request.setEntity(entity);
-                response = restClient.performRequest(request);
-            }
-            logger.info("Record indexed: {}", response.getStatusLine().getStatusCode());
-        } catch (IOException e) {
-            logger.error("Failed to index records", e);
-        }
+    /* Stable across compaction, which rewrites records into other files, and across redeliveries of a message */
+    private static String documentId(GenericRecord record) {
+        return record.get("stationId") + "-" + record.get("sequenceNumber") + "-" + record.get("statusTimestamp");
     }
 }
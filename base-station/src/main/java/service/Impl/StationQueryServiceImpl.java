@@ -0,0 +1,192 @@
+package service.Impl;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import dao.BitcaskDAO;
+import dao.ParquetQueryDAO;
+import dto.WeatherAggregateDTO;
+import mapper.Mapper;
+import org.slf4j.Logger;
+import service.StationQueryService;
+import utils.RollupResolution;
+import utils.StationQueryOptions;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves the latest status of the stations straight from bitcask: {@code GET /stations/{id}} returns one station and
+ * {@code GET /stations} streams a JSON array of all of them. Stored values are converted to JSON unless they are
+ * stored as JSON already.
+ * <p>
+ * {@code GET /stations/{id}/weather?from=<ms>&to=<ms>} aggregates the station's archived readings in that range, and
+ * with {@code &resolution=hour|day} its closed rollup windows instead.
+ */
+public class StationQueryServiceImpl implements StationQueryService {
+
+    private static final String STATIONS_PATH = "/stations";
+    private static final String WEATHER_SUFFIX = "/weather";
+    private static final int RESPONSE_BUFFER_SIZE = 64 * 1024;
+
+    @Inject
+    @Named("StationQueryLogger")
+    private Logger logger;
+    @Inject
+    private BitcaskDAO bitcaskDAO;
+    @Inject
+    private ParquetQueryDAO parquetQueryDAO;
+    @Inject
+    private Mapper mapper;
+    @Inject
+    private StationQueryOptions options;
+
+    @Override
+    public void start() {
+        // Without TCP_NODELAY every small response waits for the client's delayed ACK, about 40 ms per request.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress(options.getPort()), 0);
+            server.createContext(STATIONS_PATH, this::handle);
+            server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+            server.start();
+            logger.info("Serving station queries on port {}", options.getPort());
+        } catch (IOException e) {
+            logger.error("Failed to start the station query server on port {}", options.getPort(), e);
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, "Only GET is supported");
+                return;
+            }
+
+            String path = exchange.getRequestURI().getPath();
+            if (path.equals(STATIONS_PATH) || path.equals(STATIONS_PATH + "/")) {
+                sendAllStations(exchange);
+            } else if (path.startsWith(STATIONS_PATH + "/") && path.endsWith(WEATHER_SUFFIX)) {
+                sendWeather(exchange,
+                        path.substring(STATIONS_PATH.length() + 1, path.length() - WEATHER_SUFFIX.length()));
+            } else if (path.startsWith(STATIONS_PATH + "/")) {
+                sendStation(exchange, path.substring(STATIONS_PATH.length() + 1));
+            } else {
+                sendError(exchange, 404, "Unknown path: " + path);
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to serve the station query: {}", exchange.getRequestURI(), e);
+        }
+    }
+
+    private void sendStation(HttpExchange exchange, String stationId) throws IOException {
+        long key;
+        try {
+            key = Long.parseLong(stationId);
+        } catch (NumberFormatException e) {
+            sendError(exchange, 400, "Invalid station id: " + stationId);
+            return;
+        }
+
+        byte[] value = bitcaskDAO.read(key);
+        if (value == null) {
+            sendError(exchange, 404, "No status for station: " + key);
+            return;
+        }
+
+        byte[] status = mapper.stationStatusMsgToJson(value);
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, status.length);
+        exchange.getResponseBody().write(status);
+    }
+
+    private void sendWeather(HttpExchange exchange, String stationId) throws IOException {
+        Map<String, String> parameters = queryParameters(exchange.getRequestURI().getRawQuery());
+        long key;
+        long from;
+        long to;
+        RollupResolution resolution = null;
+        try {
+            key = Long.parseLong(stationId);
+            from = Long.parseLong(parameters.getOrDefault("from", ""));
+            to = Long.parseLong(parameters.getOrDefault("to", ""));
+            if (parameters.containsKey("resolution")) {
+                resolution = RollupResolution.fromDirectoryName(parameters.get("resolution"));
+            }
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, "Expected /stations/{id}/weather?from=<ms>&to=<ms>[&resolution=hour|day]");
+            return;
+        }
+
+        WeatherAggregateDTO aggregate = resolution == null
+                ? parquetQueryDAO.aggregateWeather(key, from, to)
+                : parquetQueryDAO.aggregateRollups(key, resolution, from, to);
+        byte[] body = mapper.serializeWeatherAggregate(aggregate);
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private static Map<String, String> queryParameters(String query) {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null) {
+            return parameters;
+        }
+
+        for (String parameter : query.split("&")) {
+            int separator = parameter.indexOf('=');
+            if (separator > 0) {
+                parameters.put(parameter.substring(0, separator), parameter.substring(separator + 1));
+            }
+        }
+        return parameters;
+    }
+
+    private void sendAllStations(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, 0);
+
+        OutputStream body = new BufferedOutputStream(exchange.getResponseBody(), RESPONSE_BUFFER_SIZE);
+        boolean[] first = {true};
+
+        body.write('[');
+        try {
+            bitcaskDAO.scanAll((key, status) -> {
+                try {
+                    if (!first[0]) {
+                        body.write(',');
+                    }
+                    body.write(mapper.stationStatusMsgToJson(status));
+                    first[0] = false;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        body.write(']');
+        body.flush();
+    }
+
+    private void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = message.getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+}
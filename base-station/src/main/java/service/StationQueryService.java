@@ -0,0 +1,6 @@
+package service;
+
+public interface StationQueryService {
+
+    void start();
+}
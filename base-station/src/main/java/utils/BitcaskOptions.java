@@ -0,0 +1,91 @@
+package utils;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+import static utils.Settings.setting;
+
+/**
+ * Tuning knobs of the Bitcask engine. {@link #fromEnvironment()} reads every option from a system property such as
+ * {@code bitcask.max.file.size}, falling back to the matching environment variable {@code BITCASK_MAX_FILE_SIZE} and
+ * then to the default.
+ */
+@Getter
+@Builder
+@ToString
+public class BitcaskOptions {
+
+    @Builder.Default
+    private String directory = "/app/src/bitcask/";
+
+    /**
+     * Size after which the active data file is rotated. Data files are mapped whole, so it must stay below 2 GiB.
+     */
+    @Builder.Default
+    private long maxFileSize = 64L * 1024 * 1024;
+
+    @Builder.Default
+    private SyncPolicy syncPolicy = SyncPolicy.INTERVAL;
+
+    @Builder.Default
+    private long syncIntervalMillis = 1000;
+
+    @Builder.Default
+    private long mergeDelayMillis = 60 * 1000;
+
+    @Builder.Default
+    private long mergeIntervalMillis = 30 * 1000;
+
+    /**
+     * Share of dead bytes at which an immutable data file becomes a merge candidate.
+     */
+    @Builder.Default
+    private double mergeDeadRatio = 0.5;
+
+    /**
+     * Bytes per second a merge may write, or 0 for no limit.
+     */
+    @Builder.Default
+    private long mergeRateLimit = 16 * 1024 * 1024;
+
+    /**
+     * Number of immutable data files kept mapped for reads.
+     */
+    @Builder.Default
+    private int maxMappedFiles = 256;
+
+    /**
+     * Number of values kept in the read cache, or 0 to disable it.
+     */
+    @Builder.Default
+    private int valueCacheEntries = 16 * 1024;
+
+    @Builder.Default
+    private long valueCacheBytes = 16 * 1024 * 1024;
+
+    /**
+     * Keys not written for this long are dropped by merges and at startup, or 0 to keep keys forever.
+     */
+    @Builder.Default
+    private long ttlMillis = 0;
+
+    public static BitcaskOptions fromEnvironment() {
+        BitcaskOptions defaults = builder().build();
+
+        return builder()
+                .directory(setting("BITCASK_DIRECTORY", defaults.directory))
+                .maxFileSize(Long.parseLong(setting("BITCASK_MAX_FILE_SIZE", defaults.maxFileSize)))
+                .syncPolicy(SyncPolicy.valueOf(setting("BITCASK_SYNC_POLICY", defaults.syncPolicy)))
+                .syncIntervalMillis(Long.parseLong(setting("BITCASK_SYNC_INTERVAL_MS", defaults.syncIntervalMillis)))
+                .mergeDelayMillis(Long.parseLong(setting("BITCASK_MERGE_DELAY_MS", defaults.mergeDelayMillis)))
+                .mergeIntervalMillis(Long.parseLong(setting("BITCASK_MERGE_INTERVAL_MS", defaults.mergeIntervalMillis)))
+                .mergeDeadRatio(Double.parseDouble(setting("BITCASK_MERGE_DEAD_RATIO", defaults.mergeDeadRatio)))
+                .mergeRateLimit(Long.parseLong(setting("BITCASK_MERGE_RATE_LIMIT", defaults.mergeRateLimit)))
+                .maxMappedFiles(Integer.parseInt(setting("BITCASK_MAX_MAPPED_FILES", defaults.maxMappedFiles)))
+                .valueCacheEntries(Integer.parseInt(setting("BITCASK_VALUE_CACHE_ENTRIES", defaults.valueCacheEntries)))
+                .valueCacheBytes(Long.parseLong(setting("BITCASK_VALUE_CACHE_BYTES", defaults.valueCacheBytes)))
+                .ttlMillis(Long.parseLong(setting("BITCASK_TTL_MS", defaults.ttlMillis)))
+                .build();
+    }
+}
@@ -0,0 +1,135 @@
+package utils;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
+/**
+ * On-disk layout of Bitcask data files.
+ * <p>
+ * A data file starts with {@link #FILE_MAGIC} followed by records of the form
+ * {@code crc | version | timestamp | keySize | key | valueSize | value}, where the CRC32C covers every byte after the
+ * checksum itself. A deleted key is recorded as a tombstone: a record with a {@link #TOMBSTONE} value size and no value.
+ * Files written before the checksummed format have no magic and hold
+ * {@code timestamp | keySize | key | valueSize | value} records.
+ */
+public final class BitcaskRecord {
+
+    public static final int FILE_MAGIC = 0x4243534B; // "BCSK"
+    public static final int FILE_HEADER_SIZE = Integer.BYTES;
+    public static final byte VERSION = 1;
+    public static final short KEY_SIZE = 8;
+    public static final int HEADER_SIZE = Integer.BYTES + Byte.BYTES + Long.BYTES + Short.BYTES + KEY_SIZE + Short.BYTES;
+    public static final int LEGACY_HEADER_SIZE = Long.BYTES + Short.BYTES + KEY_SIZE + Short.BYTES;
+    public static final short TOMBSTONE = -1;
+
+    private static final int VERSION_OFFSET = Integer.BYTES;
+    private static final int TIMESTAMP_OFFSET = VERSION_OFFSET + Byte.BYTES;
+    private static final int KEY_SIZE_OFFSET = TIMESTAMP_OFFSET + Long.BYTES;
+    private static final int KEY_OFFSET = KEY_SIZE_OFFSET + Short.BYTES;
+    private static final int VALUE_SIZE_OFFSET = KEY_OFFSET + KEY_SIZE;
+
+    private BitcaskRecord() {
+    }
+
+    public static boolean hasFileHeader(ByteBuffer file) {
+        return file.limit() >= FILE_HEADER_SIZE && file.getInt(0) == FILE_MAGIC;
+    }
+
+    /**
+     * Appends a checksummed record at the buffer's position, which must have room for {@code HEADER_SIZE + value.length}.
+     */
+    public static void put(ByteBuffer buffer, CRC32C crc, long timestamp, long key, byte[] value) {
+        int start = buffer.position();
+
+        putHeader(buffer, timestamp, key, value.length);
+        buffer.put(value);
+        putChecksum(buffer, crc, start);
+    }
+
+    /**
+     * Same as {@link #put(ByteBuffer, CRC32C, long, long, byte[])} with the value taken from the remaining bytes of
+     * {@code value}.
+     */
+    public static void put(ByteBuffer buffer, CRC32C crc, long timestamp, long key, ByteBuffer value) {
+        int start = buffer.position();
+
+        putHeader(buffer, timestamp, key, value.remaining());
+        buffer.put(value);
+        putChecksum(buffer, crc, start);
+    }
+
+    public static void putTombstone(ByteBuffer buffer, CRC32C crc, long timestamp, long key) {
+        int start = buffer.position();
+
+        putHeader(buffer, timestamp, key, TOMBSTONE);
+        putChecksum(buffer, crc, start);
+    }
+
+    public static boolean isTombstone(short valueSize) {
+        return valueSize == TOMBSTONE;
+    }
+
+    public static int recordSize(short valueSize) {
+        return HEADER_SIZE + (isTombstone(valueSize) ? 0 : valueSize);
+    }
+
+    private static void putHeader(ByteBuffer buffer, long timestamp, long key, int valueSize) {
+        buffer.putInt(0);
+        buffer.put(VERSION);
+        buffer.putLong(timestamp);
+        buffer.putShort(KEY_SIZE);
+        buffer.putLong(key);
+        buffer.putShort((short) valueSize);
+    }
+
+    private static void putChecksum(ByteBuffer buffer, CRC32C crc, int start) {
+        int end = buffer.position();
+        int limit = buffer.limit();
+
+        crc.reset();
+        buffer.limit(end).position(start + VERSION_OFFSET);
+        crc.update(buffer);
+        buffer.limit(limit).position(end);
+        buffer.putInt(start, (int) crc.getValue());
+    }
+
+    /**
+     * Returns the size of the record at {@code position} if it is complete and its checksum matches, or -1 for a torn
+     * or corrupted record.
+     */
+    public static int check(ByteBuffer file, int position, CRC32C crc) {
+        if (file.limit() - position < HEADER_SIZE
+                || file.get(position + VERSION_OFFSET) != VERSION
+                || file.getShort(position + KEY_SIZE_OFFSET) != KEY_SIZE) {
+            return -1;
+        }
+
+        short valueSize = valueSize(file, position);
+        int end = position + recordSize(valueSize);
+        if ((valueSize < 0 && !isTombstone(valueSize)) || end > file.limit()) {
+            return -1;
+        }
+
+        int savedPosition = file.position();
+        int savedLimit = file.limit();
+
+        crc.reset();
+        file.limit(end).position(position + VERSION_OFFSET);
+        crc.update(file);
+        file.limit(savedLimit).position(savedPosition);
+
+        return (int) crc.getValue() == file.getInt(position) ? end - position : -1;
+    }
+
+    public static long timestamp(ByteBuffer file, int position) {
+        return file.getLong(position + TIMESTAMP_OFFSET);
+    }
+
+    public static long key(ByteBuffer file, int position) {
+        return file.getLong(position + KEY_OFFSET);
+    }
+
+    public static short valueSize(ByteBuffer file, int position) {
+        return file.getShort(position + VALUE_SIZE_OFFSET);
+    }
+}
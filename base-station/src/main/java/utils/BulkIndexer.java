@@ -0,0 +1,357 @@
+package utils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import org.apache.http.HttpHost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.entity.NByteArrayEntity;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+import org.slf4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Indexes JSON documents through the {@code _bulk} API over one long-lived, pooled {@link RestClient}.
+ * <p>
+ * Documents are gathered into NDJSON bulk requests bounded by count and bytes, and sent asynchronously with at most
+ * {@link ElasticsearchOptions#getMaxInFlightRequests()} requests awaiting an answer; {@link #add} blocks beyond that,
+ * which is the back-pressure on the caller. A request answered with 429 or a 5xx, or one that failed to connect, is
+ * sent again after an exponential backoff; when only some items of a bulk are rejected that way, only those are sent
+ * again. Items rejected for other reasons, a mapping error for instance, are logged and counted as failed.
+ * <p>
+ * Every document is indexed under the id it is added with, so indexing it again overwrites it instead of adding a copy.
+ */
+public class BulkIndexer implements Closeable {
+
+    private static final ContentType NDJSON = ContentType.create("application/x-ndjson", StandardCharsets.UTF_8);
+    private static final byte[] INDEX_ACTION_START = "{\"index\":{\"_id\":\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] INDEX_ACTION_END = "\"}}\n".getBytes(StandardCharsets.UTF_8);
+    private static final int INDEX_ACTION_LENGTH = INDEX_ACTION_START.length + INDEX_ACTION_END.length;
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final long CLOSE_TIMEOUT_MILLIS = 30 * 1000;
+
+    private final ElasticsearchOptions options;
+    private final Logger logger;
+    private final RestClient restClient;
+    private final String bulkEndpoint;
+    private final Semaphore inFlight;
+    private final ScheduledExecutorService retryScheduler;
+    private final IndexingStats indexingStats;
+    private List<Document> pending = new ArrayList<>();
+    private long pendingBytes;
+
+    public BulkIndexer(ElasticsearchOptions options, Logger logger) {
+        this.options = options;
+        this.logger = logger;
+        this.restClient = RestClient.builder(HttpHost.create(options.getUrl()))
+                .setHttpClientConfigCallback(httpClient -> httpClient
+                        .setMaxConnTotal(options.getMaxInFlightRequests())
+                        .setMaxConnPerRoute(options.getMaxInFlightRequests()))
+                .build();
+        this.bulkEndpoint = "/" + options.getIndex() + "/_bulk";
+        this.inFlight = new Semaphore(options.getMaxInFlightRequests());
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "elasticsearch-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.indexingStats = new IndexingStats(() -> options.getMaxInFlightRequests() - inFlight.availablePermits());
+    }
+
+    public IndexingStats getIndexingStats() {
+        return indexingStats;
+    }
+
+    /**
+     * Queues the document, sending the pending bulk first if the document would not fit in it.
+     */
+    public synchronized void add(String id, String document) throws InterruptedException {
+        byte[] idBytes = JsonStringEncoder.getInstance().quoteAsUTF8(id);
+        byte[] source = document.getBytes(StandardCharsets.UTF_8);
+        long size = INDEX_ACTION_LENGTH + idBytes.length + source.length + 1;
+
+        if (!pending.isEmpty()
+                && (pending.size() >= options.getBulkMaxDocuments() || pendingBytes + size > options.getBulkMaxBytes())) {
+            send();
+        }
+        pending.add(new Document(idBytes, source));
+        pendingBytes += size;
+    }
+
+    /**
+     * Sends the pending documents without waiting for a full bulk.
+     */
+    public synchronized void flush() throws InterruptedException {
+        if (!pending.isEmpty()) {
+            send();
+        }
+    }
+
+    /**
+     * Flushes and waits until every request sent so far got its final answer, or the timeout passed.
+     */
+    public boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        flush();
+        if (!inFlight.tryAcquire(options.getMaxInFlightRequests(), timeoutMillis, TimeUnit.MILLISECONDS)) {
+            return false;
+        }
+        inFlight.release(options.getMaxInFlightRequests());
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!awaitIdle(CLOSE_TIMEOUT_MILLIS)) {
+                logger.error("Bulk requests still unanswered after {} ms; {}", CLOSE_TIMEOUT_MILLIS, indexingStats);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            retryScheduler.shutdownNow();
+            restClient.close();
+        }
+    }
+
+    private void send() throws InterruptedException {
+        List<Document> documents = pending;
+        pending = new ArrayList<>();
+        pendingBytes = 0;
+
+        // The permit is held through the retries and released once the bulk got its final answer.
+        inFlight.acquire();
+        submit(documents, 0);
+    }
+
+    private void submit(List<Document> documents, int attempt) {
+        byte[] payload = payload(documents);
+        Request request = new Request("POST", bulkEndpoint);
+        request.setEntity(new NByteArrayEntity(payload, NDJSON));
+        indexingStats.recordRequest(payload.length);
+
+        try {
+            restClient.performRequestAsync(request, listener(documents, attempt));
+        } catch (RuntimeException e) {
+            // The client is closed, so nothing will call back.
+            logger.error("Dropping {} documents that could not be sent", documents.size(), e);
+            drop(documents.size());
+        }
+    }
+
+    private ResponseListener listener(List<Document> documents, int attempt) {
+        return new ResponseListener() {
+            @Override
+            public void onSuccess(Response response) {
+                try {
+                    handleResponse(documents, attempt, response);
+                } catch (IOException | RuntimeException e) {
+                    logger.error("Failed to read the answer to a bulk request of {} documents", documents.size(), e);
+                    fail(documents.size());
+                }
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                if (e instanceof ResponseException
+                        && !isRetryable(((ResponseException) e).getResponse().getStatusLine().getStatusCode())) {
+                    logger.error("Bulk request of {} documents rejected", documents.size(), e);
+                    fail(documents.size());
+                } else {
+                    retry(documents, attempt, e);
+                }
+            }
+        };
+    }
+
+    private static byte[] payload(List<Document> documents) {
+        int size = 0;
+        for (Document document : documents) {
+            size += INDEX_ACTION_LENGTH + document.id.length + document.source.length + 1;
+        }
+
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(size);
+        for (Document document : documents) {
+            payload.writeBytes(INDEX_ACTION_START);
+            payload.writeBytes(document.id);
+            payload.writeBytes(INDEX_ACTION_END);
+            payload.writeBytes(document.source);
+            payload.write('\n');
+        }
+        return payload.toByteArray();
+    }
+
+    private static boolean isRetryable(int status) {
+        return status == 429 || status >= 500;
+    }
+
+    /* Only the items rejected with a retryable status are sent again, so nothing is indexed twice */
+    private void handleResponse(List<Document> documents, int attempt, Response response) throws IOException {
+        List<Document> retryable = new ArrayList<>();
+        int failed = 0;
+        String firstError = null;
+
+        try (InputStream body = response.getEntity().getContent(); JsonParser parser = JSON_FACTORY.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a JSON object in the bulk response but got " + parser.currentToken());
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken token = parser.nextToken();
+
+                if (field.equals("errors") && token == JsonToken.VALUE_FALSE) {
+                    // Elasticsearch writes errors before items, so a clean bulk needs no further parsing.
+                    succeed(documents.size());
+                    return;
+                }
+                if (!field.equals("items") || token != JsonToken.START_ARRAY) {
+                    parser.skipChildren();
+                    continue;
+                }
+
+                for (int item = 0; parser.nextToken() == JsonToken.START_OBJECT; item++) {
+                    ItemResult result = readItem(parser);
+                    if (result.status >= 200 && result.status < 300) {
+                        continue;
+                    }
+                    if (isRetryable(result.status)) {
+                        retryable.add(documents.get(item));
+                    } else {
+                        failed++;
+                        if (firstError == null) {
+                            firstError = result.status + " " + result.error;
+                        }
+                    }
+                }
+            }
+        }
+
+        if (failed > 0) {
+            logger.error("{} of {} documents rejected by Elasticsearch, the first with {}", failed, documents.size(),
+                    firstError);
+            indexingStats.recordFailed(failed);
+        }
+        indexingStats.recordIndexed(documents.size() - failed - retryable.size());
+
+        if (retryable.isEmpty()) {
+            inFlight.release();
+        } else {
+            retry(retryable, attempt, null);
+        }
+    }
+
+    private static final class Document {
+
+        final byte[] id;
+        final byte[] source;
+
+        Document(byte[] id, byte[] source) {
+            this.id = id;
+            this.source = source;
+        }
+    }
+
+    private static final class ItemResult {
+
+        int status;
+        String error;
+    }
+
+    /* One {"index": {..., "status": 201, "error": {...}}} element of the items array */
+    private static ItemResult readItem(JsonParser parser) throws IOException {
+        ItemResult result = new ItemResult();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken token = parser.nextToken();
+
+                if (field.equals("status") && token == JsonToken.VALUE_NUMBER_INT) {
+                    result.status = parser.getIntValue();
+                } else if (field.equals("error") && token == JsonToken.START_OBJECT) {
+                    result.error = readErrorReason(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return result;
+    }
+
+    private static String readErrorReason(JsonParser parser) throws IOException {
+        String type = null;
+        String reason = null;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+
+            if (field.equals("type")) {
+                type = parser.getValueAsString();
+            } else if (field.equals("reason")) {
+                reason = parser.getValueAsString();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return type + ": " + reason;
+    }
+
+    private void retry(List<Document> documents, int attempt, Exception cause) {
+        if (attempt >= options.getMaxRetries()) {
+            logger.error("Dropping {} documents after {} retries", documents.size(), attempt, cause);
+            drop(documents.size());
+            return;
+        }
+
+        long backoff = Math.min(options.getRetryMaxBackoffMillis(),
+                options.getRetryInitialBackoffMillis() << Math.min(attempt, 30));
+        // Jitter keeps the in-flight requests from retrying in lockstep.
+        long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        indexingStats.recordRetry();
+        logger.debug("Retrying {} documents in {} ms", documents.size(), delay, cause);
+        try {
+            retryScheduler.schedule(() -> submit(documents, attempt + 1), delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            logger.error("Dropping {} documents to retry after closing", documents.size());
+            drop(documents.size());
+        }
+    }
+
+    private void succeed(int documents) {
+        indexingStats.recordIndexed(documents);
+        inFlight.release();
+    }
+
+    private void fail(int documents) {
+        indexingStats.recordFailed(documents);
+        inFlight.release();
+    }
+
+    private void drop(int documents) {
+        indexingStats.recordDropped(documents);
+        inFlight.release();
+    }
+}
@@ -0,0 +1,64 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cumulative counters of the archive partitions compacted since startup.
+ */
+public class CompactionStats {
+
+    private final AtomicLong partitionsCompacted = new AtomicLong();
+    private final AtomicLong failedCompactions = new AtomicLong();
+    private final AtomicLong filesIn = new AtomicLong();
+    private final AtomicLong filesOut = new AtomicLong();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+
+    public void recordCompaction(int filesIn, int filesOut, long bytesIn, long bytesOut) {
+        partitionsCompacted.incrementAndGet();
+        this.filesIn.addAndGet(filesIn);
+        this.filesOut.addAndGet(filesOut);
+        this.bytesIn.addAndGet(bytesIn);
+        this.bytesOut.addAndGet(bytesOut);
+    }
+
+    public void recordFailure() {
+        failedCompactions.incrementAndGet();
+    }
+
+    public long getPartitionsCompacted() {
+        return partitionsCompacted.get();
+    }
+
+    public long getFailedCompactions() {
+        return failedCompactions.get();
+    }
+
+    public long getFilesIn() {
+        return filesIn.get();
+    }
+
+    public long getFilesOut() {
+        return filesOut.get();
+    }
+
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+
+    public long getBytesSaved() {
+        return getBytesIn() - getBytesOut();
+    }
+
+    @Override
+    public String toString() {
+        return "CompactionStats(partitionsCompacted=" + getPartitionsCompacted()
+                + ", failedCompactions=" + getFailedCompactions() + ", filesIn=" + getFilesIn()
+                + ", filesOut=" + getFilesOut() + ", bytesIn=" + getBytesIn() + ", bytesOut=" + getBytesOut()
+                + ", bytesSaved=" + getBytesSaved() + ")";
+    }
+}
@@ -0,0 +1,60 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size of a Bitcask data file, how much of it is held by records that were superseded since they were written, and the
+ * range of record timestamps it holds.
+ */
+public class DataFileStats {
+
+    private final AtomicLong totalBytes;
+    private final AtomicLong deadBytes;
+    private final AtomicLong minTimestamp = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong maxTimestamp = new AtomicLong(Long.MIN_VALUE);
+
+    public DataFileStats(long totalBytes, long deadBytes) {
+        this.totalBytes = new AtomicLong(totalBytes);
+        this.deadBytes = new AtomicLong(deadBytes);
+    }
+
+    public void addTotalBytes(long bytes) {
+        totalBytes.addAndGet(bytes);
+    }
+
+    public void addDeadBytes(long bytes) {
+        deadBytes.addAndGet(bytes);
+    }
+
+    public void addTimestamps(long min, long max) {
+        minTimestamp.accumulateAndGet(min, Math::min);
+        maxTimestamp.accumulateAndGet(max, Math::max);
+    }
+
+    public long getTotalBytes() {
+        return totalBytes.get();
+    }
+
+    public long getDeadBytes() {
+        return deadBytes.get();
+    }
+
+    /**
+     * Returns {@link Long#MAX_VALUE} while the file holds no records.
+     */
+    public long getMinTimestamp() {
+        return minTimestamp.get();
+    }
+
+    /**
+     * Returns {@link Long#MIN_VALUE} while the file holds no records.
+     */
+    public long getMaxTimestamp() {
+        return maxTimestamp.get();
+    }
+
+    public double getDeadRatio() {
+        long total = totalBytes.get();
+        return total == 0 ? 0 : (double) deadBytes.get() / total;
+    }
+}
@@ -0,0 +1,75 @@
+package utils;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+import static utils.Settings.setting;
+
+/**
+ * Settings of the Elasticsearch indexer, read like {@link BitcaskOptions}: a system property such as
+ * {@code elasticsearch.url}, then the environment variable {@code ELASTICSEARCH_URL}, then the default.
+ */
+@Getter
+@Builder
+@ToString
+public class ElasticsearchOptions {
+
+    @Builder.Default
+    private String url = "http://elasticsearch-service:9200";
+
+    @Builder.Default
+    private String index = "data";
+
+    /**
+     * A bulk request is sent once it holds this many documents or this many bytes, whichever comes first.
+     */
+    @Builder.Default
+    private int bulkMaxDocuments = 5000;
+
+    @Builder.Default
+    private long bulkMaxBytes = 5 * 1024 * 1024;
+
+    /**
+     * Bulk requests sent and not yet answered, retries included; adding documents blocks beyond it.
+     */
+    @Builder.Default
+    private int maxInFlightRequests = 4;
+
+    /**
+     * Retries of documents rejected with 429 or a 5xx, or of a request that failed to connect, before they are dropped.
+     */
+    @Builder.Default
+    private int maxRetries = 8;
+
+    /**
+     * First retry delay, doubled on every further attempt up to the maximum, with jitter.
+     */
+    @Builder.Default
+    private long retryInitialBackoffMillis = 100;
+
+    @Builder.Default
+    private long retryMaxBackoffMillis = 10 * 1000;
+
+    /**
+     * Log of the archive files already indexed, so a restart only indexes the files written since.
+     */
+    @Builder.Default
+    private String checkpointPath = "/mnt/parquet/_elasticsearch/indexed-files";
+
+    public static ElasticsearchOptions fromEnvironment() {
+        ElasticsearchOptions defaults = builder().build();
+
+        return builder()
+                .url(setting("ELASTICSEARCH_URL", defaults.url))
+                .index(setting("ELASTICSEARCH_INDEX", defaults.index))
+                .bulkMaxDocuments(Integer.parseInt(setting("ELASTICSEARCH_BULK_MAX_DOCUMENTS", defaults.bulkMaxDocuments)))
+                .bulkMaxBytes(Long.parseLong(setting("ELASTICSEARCH_BULK_MAX_BYTES", defaults.bulkMaxBytes)))
+                .maxInFlightRequests(Integer.parseInt(setting("ELASTICSEARCH_MAX_IN_FLIGHT_REQUESTS", defaults.maxInFlightRequests)))
+                .maxRetries(Integer.parseInt(setting("ELASTICSEARCH_MAX_RETRIES", defaults.maxRetries)))
+                .retryInitialBackoffMillis(Long.parseLong(setting("ELASTICSEARCH_RETRY_INITIAL_BACKOFF_MS", defaults.retryInitialBackoffMillis)))
+                .retryMaxBackoffMillis(Long.parseLong(setting("ELASTICSEARCH_RETRY_MAX_BACKOFF_MS", defaults.retryMaxBackoffMillis)))
+                .checkpointPath(setting("ELASTICSEARCH_CHECKPOINT_PATH", defaults.checkpointPath))
+                .build();
+    }
+}
@@ -0,0 +1,124 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/**
+ * Cumulative counters of the Parquet flushes run since startup, along with the current depth of the flush queue.
+ */
+public class FlushStats {
+
+    private final IntSupplier queueDepth;
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+    private final AtomicLong rowsFlushed = new AtomicLong();
+    private final AtomicLong totalFlushMillis = new AtomicLong();
+    private final AtomicLong lastFlushMillis = new AtomicLong();
+    private final AtomicLong maxFlushMillis = new AtomicLong();
+    private final AtomicLong backPressureWaits = new AtomicLong();
+    private final AtomicLong backPressureMillis = new AtomicLong();
+    private final AtomicLong rollupsFlushed = new AtomicLong();
+    private final AtomicLong lateReadings = new AtomicLong();
+    private final AtomicLong evictedFiles = new AtomicLong();
+
+    public FlushStats(IntSupplier queueDepth) {
+        this.queueDepth = queueDepth;
+    }
+
+    public void recordFlush(int rows, long durationMillis) {
+        flushes.incrementAndGet();
+        rowsFlushed.addAndGet(rows);
+        totalFlushMillis.addAndGet(durationMillis);
+        lastFlushMillis.set(durationMillis);
+        maxFlushMillis.accumulateAndGet(durationMillis, Math::max);
+    }
+
+    public void recordFailure() {
+        failedFlushes.incrementAndGet();
+    }
+
+    public void recordBackPressure(long waitedMillis) {
+        backPressureWaits.incrementAndGet();
+        backPressureMillis.addAndGet(waitedMillis);
+    }
+
+    public void recordRollups(int rollups) {
+        rollupsFlushed.addAndGet(rollups);
+    }
+
+    public void recordLateReading() {
+        lateReadings.incrementAndGet();
+    }
+
+    public void recordEvictedFile() {
+        evictedFiles.incrementAndGet();
+    }
+
+    public int getQueueDepth() {
+        return queueDepth.getAsInt();
+    }
+
+    public long getFlushes() {
+        return flushes.get();
+    }
+
+    public long getFailedFlushes() {
+        return failedFlushes.get();
+    }
+
+    public long getRowsFlushed() {
+        return rowsFlushed.get();
+    }
+
+    public long getTotalFlushMillis() {
+        return totalFlushMillis.get();
+    }
+
+    public long getLastFlushMillis() {
+        return lastFlushMillis.get();
+    }
+
+    public long getMaxFlushMillis() {
+        return maxFlushMillis.get();
+    }
+
+    /**
+     * Times the consumer blocked because the flush queue was full.
+     */
+    public long getBackPressureWaits() {
+        return backPressureWaits.get();
+    }
+
+    public long getBackPressureMillis() {
+        return backPressureMillis.get();
+    }
+
+    public long getRollupsFlushed() {
+        return rollupsFlushed.get();
+    }
+
+    /**
+     * Readings left out of the rollups because their window had closed; they are still in the raw archive.
+     */
+    public long getLateReadings() {
+        return lateReadings.get();
+    }
+
+    /**
+     * Files closed early to stay within the open file cap; a steady count means the cap is below the number of
+     * partitions written at once.
+     */
+    public long getEvictedFiles() {
+        return evictedFiles.get();
+    }
+
+    @Override
+    public String toString() {
+        return "FlushStats(queueDepth=" + getQueueDepth() + ", flushes=" + getFlushes()
+                + ", failedFlushes=" + getFailedFlushes() + ", rowsFlushed=" + getRowsFlushed()
+                + ", totalFlushMillis=" + getTotalFlushMillis() + ", lastFlushMillis=" + getLastFlushMillis()
+                + ", maxFlushMillis=" + getMaxFlushMillis() + ", backPressureWaits=" + getBackPressureWaits()
+                + ", backPressureMillis=" + getBackPressureMillis() + ", rollupsFlushed=" + getRollupsFlushed()
+                + ", lateReadings=" + getLateReadings() + ", evictedFiles=" + getEvictedFiles() + ")";
+    }
+}
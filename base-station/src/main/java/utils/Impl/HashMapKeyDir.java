@@ -0,0 +1,138 @@
+package utils.Impl;
+
+import utils.KeyDir;
+import utils.KeyDirValue;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class HashMapKeyDir implements KeyDir {
+
+    private final Map<Long, KeyDirValue> keyDir = new ConcurrentHashMap<>();
+
+    @Override
+    public KeyDirValue get(long key) {
+        return keyDir.get(key);
+    }
+
+    @Override
+    public void put(long key, long fileID, short valueSize, long valueOffset, long timestamp) {
+        keyDir.put(key, new KeyDirValue(fileID, valueSize, valueOffset, timestamp));
+    }
+
+    @Override
+    public boolean putIfNewer(long key, long fileID, short valueSize, long valueOffset, long timestamp, DeadEntryConsumer dead) {
+        KeyDirValue newValue = new KeyDirValue(fileID, valueSize, valueOffset, timestamp);
+
+        KeyDirValue[] deadValue = new KeyDirValue[1];
+        KeyDirValue storedValue = keyDir.merge(key, newValue, (currentValue, value) -> {
+            boolean newer = currentValue.getTimestamp() < value.getTimestamp();
+            deadValue[0] = newer ? currentValue : value;
+            return newer ? value : currentValue;
+        });
+
+        if (dead != null && deadValue[0] != null) {
+            dead.accept(deadValue[0].getFileID(), deadValue[0].getValueSize());
+        }
+        return storedValue == newValue;
+    }
+
+    @Override
+    public boolean relocate(long key, long timestamp, long fileID, long valueOffset) {
+        KeyDirValue currentValue = keyDir.get(key);
+
+        if (currentValue == null || currentValue.getTimestamp() != timestamp) {
+            return false;
+        }
+        return keyDir.replace(key, currentValue,
+                new KeyDirValue(fileID, currentValue.getValueSize(), valueOffset, timestamp));
+    }
+
+    // Entries move one at a time; readers may observe a partially applied relocation, each entry staying valid.
+    @Override
+    public int relocateAll(KeyDir relocated, DeadEntryConsumer rejected) {
+        int count = 0;
+        Cursor cursor = relocated.cursor();
+
+        while (cursor.next()) {
+            if (relocate(cursor.key(), cursor.timestamp(), cursor.fileID(), cursor.valueOffset())) {
+                count++;
+            } else if (rejected != null) {
+                rejected.accept(cursor.fileID(), cursor.valueSize());
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int removeAll(KeyDir removed) {
+        int count = 0;
+        Cursor cursor = removed.cursor();
+
+        while (cursor.next()) {
+            KeyDirValue currentValue = keyDir.get(cursor.key());
+            if (currentValue != null && currentValue.getTimestamp() == cursor.timestamp()
+                    && keyDir.remove(cursor.key(), currentValue)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int size() {
+        return keyDir.size();
+    }
+
+    @Override
+    public void clear() {
+        keyDir.clear();
+    }
+
+    @Override
+    public Cursor cursor() {
+        Iterator<Map.Entry<Long, KeyDirValue>> iterator = keyDir.entrySet().iterator();
+
+        return new Cursor() {
+            private long key;
+            private KeyDirValue value;
+
+            @Override
+            public boolean next() {
+                if (!iterator.hasNext()) {
+                    return false;
+                }
+                Map.Entry<Long, KeyDirValue> entry = iterator.next();
+                key = entry.getKey();
+                value = entry.getValue();
+                return true;
+            }
+
+            @Override
+            public long key() {
+                return key;
+            }
+
+            @Override
+            public long fileID() {
+                return value.getFileID();
+            }
+
+            @Override
+            public short valueSize() {
+                return value.getValueSize();
+            }
+
+            @Override
+            public long valueOffset() {
+                return value.getValueOffset();
+            }
+
+            @Override
+            public long timestamp() {
+                return value.getTimestamp();
+            }
+        };
+    }
+}
@@ -0,0 +1,379 @@
+package utils.Impl;
+
+import utils.KeyDir;
+import utils.KeyDirValue;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Linear-probing hash table keyed by primitive {@code long} with the entry fields stored inline in parallel arrays.
+ * An entry costs 35 bytes of slot storage and no per-entry objects, compared to a boxed key, a map node and a
+ * {@link KeyDirValue} (~90 bytes and three objects for the GC to trace) in a {@code HashMap<Long, KeyDirValue>}.
+ * <p>
+ * Readers never take the lock in the common case: they probe under a {@link StampedLock} optimistic stamp and only
+ * fall back to a read lock if a mutation overlapped. Mutations are serialized by the write lock. Removal shifts the rest
+ * of the probe sequence back instead of leaving markers behind, so removed keys give their memory back right away.
+ */
+public class OpenAddressingKeyDir implements KeyDir {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final StampedLock lock = new StampedLock();
+    private volatile Table table;
+    private int size;
+
+    public OpenAddressingKeyDir() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public OpenAddressingKeyDir(int expectedSize) {
+        table = new Table(tableSizeFor(expectedSize));
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(2, (int) Math.ceil(expectedSize / LOAD_FACTOR)) - 1) << 1;
+        return Math.max(capacity, 2);
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static final class Table {
+
+        final long[] keys;
+        final long[] fileIDs;
+        final long[] valueOffsets;
+        final long[] timestamps;
+        final short[] valueSizes;
+        final boolean[] used;
+        final int resizeThreshold;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            fileIDs = new long[capacity];
+            valueOffsets = new long[capacity];
+            timestamps = new long[capacity];
+            valueSizes = new short[capacity];
+            used = new boolean[capacity];
+            resizeThreshold = (int) (capacity * LOAD_FACTOR);
+        }
+
+        /**
+         * Returns the slot holding {@code key}, or the bitwise complement of the free slot where it would be
+         * inserted. The probe is bounded so that a racing optimistic reader cannot spin forever.
+         */
+        int findSlot(long key) {
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+
+            for (int probes = 0; probes < keys.length && used[slot]; probes++) {
+                if (keys[slot] == key) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return ~slot;
+        }
+
+        void set(int slot, long key, long fileID, short valueSize, long valueOffset, long timestamp) {
+            keys[slot] = key;
+            fileIDs[slot] = fileID;
+            valueSizes[slot] = valueSize;
+            valueOffsets[slot] = valueOffset;
+            timestamps[slot] = timestamp;
+            used[slot] = true;
+        }
+
+        /**
+         * Empties the slot and shifts the following entries of the probe sequence back, so lookups never have to skip
+         * over removed slots.
+         */
+        void remove(int slot) {
+            int mask = keys.length - 1;
+            int hole = slot;
+
+            for (int next = (hole + 1) & mask; used[next]; next = (next + 1) & mask) {
+                int home = hash(keys[next]) & mask;
+
+                // The entry may fill the hole only if the hole lies on its probe path from home to where it sits now.
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    set(hole, keys[next], fileIDs[next], valueSizes[next], valueOffsets[next], timestamps[next]);
+                    hole = next;
+                }
+            }
+            used[hole] = false;
+        }
+
+        KeyDirValue valueAt(int slot) {
+            return new KeyDirValue(fileIDs[slot], valueSizes[slot], valueOffsets[slot], timestamps[slot]);
+        }
+    }
+
+    private void insertAt(int freeSlot, long key, long fileID, short valueSize, long valueOffset, long timestamp) {
+        table.set(freeSlot, key, fileID, valueSize, valueOffset, timestamp);
+        if (++size > table.resizeThreshold) {
+            resize(table.keys.length << 1);
+        }
+    }
+
+    private void resize(int capacity) {
+        Table oldTable = table;
+        Table newTable = new Table(capacity);
+
+        for (int i = 0; i < oldTable.keys.length; i++) {
+            if (oldTable.used[i]) {
+                int slot = ~newTable.findSlot(oldTable.keys[i]);
+                newTable.set(slot, oldTable.keys[i], oldTable.fileIDs[i], oldTable.valueSizes[i],
+                        oldTable.valueOffsets[i], oldTable.timestamps[i]);
+            }
+        }
+        table = newTable;
+    }
+
+    @Override
+    public KeyDirValue get(long key) {
+        long stamp = lock.tryOptimisticRead();
+
+        if (stamp != 0) {
+            Table current = table;
+            int slot = current.findSlot(key);
+            KeyDirValue value = slot < 0 ? null : current.valueAt(slot);
+
+            if (lock.validate(stamp)) {
+                return value;
+            }
+        }
+
+        stamp = lock.readLock();
+        try {
+            Table current = table;
+            int slot = current.findSlot(key);
+            return slot < 0 ? null : current.valueAt(slot);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void put(long key, long fileID, short valueSize, long valueOffset, long timestamp) {
+        long stamp = lock.writeLock();
+        try {
+            int slot = table.findSlot(key);
+
+            if (slot >= 0) {
+                table.set(slot, key, fileID, valueSize, valueOffset, timestamp);
+            } else {
+                insertAt(~slot, key, fileID, valueSize, valueOffset, timestamp);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private boolean putIfNewerLocked(long key, long fileID, short valueSize, long valueOffset, long timestamp,
+                                     DeadEntryConsumer dead) {
+        int slot = table.findSlot(key);
+
+        if (slot < 0) {
+            insertAt(~slot, key, fileID, valueSize, valueOffset, timestamp);
+            return true;
+        }
+        if (table.timestamps[slot] < timestamp) {
+            if (dead != null) {
+                dead.accept(table.fileIDs[slot], table.valueSizes[slot]);
+            }
+            table.set(slot, key, fileID, valueSize, valueOffset, timestamp);
+            return true;
+        }
+        if (dead != null) {
+            dead.accept(fileID, valueSize);
+        }
+        return false;
+    }
+
+    @Override
+    public boolean putIfNewer(long key, long fileID, short valueSize, long valueOffset, long timestamp, DeadEntryConsumer dead) {
+        long stamp = lock.writeLock();
+        try {
+            return putIfNewerLocked(key, fileID, valueSize, valueOffset, timestamp, dead);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void putAllIfNewer(int count, long[] keys, long fileID, short[] valueSizes, long[] valueOffsets,
+                              long[] timestamps, boolean[] stored, DeadEntryConsumer dead) {
+        long stamp = lock.writeLock();
+        try {
+            for (int i = 0; i < count; i++) {
+                stored[i] = putIfNewerLocked(keys[i], fileID, valueSizes[i], valueOffsets[i], timestamps[i], dead);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private boolean relocateLocked(long key, long timestamp, long fileID, long valueOffset) {
+        int slot = table.findSlot(key);
+
+        if (slot < 0 || table.timestamps[slot] != timestamp) {
+            return false;
+        }
+        table.fileIDs[slot] = fileID;
+        table.valueOffsets[slot] = valueOffset;
+        return true;
+    }
+
+    @Override
+    public boolean relocate(long key, long timestamp, long fileID, long valueOffset) {
+        long stamp = lock.writeLock();
+        try {
+            return relocateLocked(key, timestamp, fileID, valueOffset);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public int relocateAll(KeyDir relocated, DeadEntryConsumer rejected) {
+        int count = 0;
+        Cursor cursor = relocated.cursor();
+
+        long stamp = lock.writeLock();
+        try {
+            while (cursor.next()) {
+                if (relocateLocked(cursor.key(), cursor.timestamp(), cursor.fileID(), cursor.valueOffset())) {
+                    count++;
+                } else if (rejected != null) {
+                    rejected.accept(cursor.fileID(), cursor.valueSize());
+                }
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        return count;
+    }
+
+    @Override
+    public int removeAll(KeyDir removed) {
+        int count = 0;
+        Cursor cursor = removed.cursor();
+
+        long stamp = lock.writeLock();
+        try {
+            while (cursor.next()) {
+                int slot = table.findSlot(cursor.key());
+
+                if (slot >= 0 && table.timestamps[slot] == cursor.timestamp()) {
+                    table.remove(slot);
+                    size--;
+                    count++;
+                }
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        return count;
+    }
+
+    @Override
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            Arrays.fill(table.used, false);
+            size = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public Cursor cursor() {
+        Table snapshot = table;
+
+        return new Cursor() {
+            private int slot = -1;
+            private long key;
+            private long fileID;
+            private short valueSize;
+            private long valueOffset;
+            private long timestamp;
+
+            @Override
+            public boolean next() {
+                while (++slot < snapshot.keys.length) {
+                    long stamp = lock.tryOptimisticRead();
+                    boolean copied = copySlot();
+                    if (lock.validate(stamp)) {
+                        if (copied) {
+                            return true;
+                        }
+                        continue;
+                    }
+
+                    stamp = lock.readLock();
+                    try {
+                        if (copySlot()) {
+                            return true;
+                        }
+                    } finally {
+                        lock.unlockRead(stamp);
+                    }
+                }
+                return false;
+            }
+
+            private boolean copySlot() {
+                if (!snapshot.used[slot]) {
+                    return false;
+                }
+                key = snapshot.keys[slot];
+                fileID = snapshot.fileIDs[slot];
+                valueSize = snapshot.valueSizes[slot];
+                valueOffset = snapshot.valueOffsets[slot];
+                timestamp = snapshot.timestamps[slot];
+                return true;
+            }
+
+            @Override
+            public long key() {
+                return key;
+            }
+
+            @Override
+            public long fileID() {
+                return fileID;
+            }
+
+            @Override
+            public short valueSize() {
+                return valueSize;
+            }
+
+            @Override
+            public long valueOffset() {
+                return valueOffset;
+            }
+
+            @Override
+            public long timestamp() {
+                return timestamp;
+            }
+        };
+    }
+}
@@ -0,0 +1,140 @@
+package utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The archive files whose records are in Elasticsearch, kept across restarts.
+ * <p>
+ * Changes are appended to a log, one {@code +<path>} or {@code -<path>} line each, and synced before returning.
+ * Opening replays the log, forgets the files that are gone, and rewrites it with the files left, so it holds one line
+ * per file of the archive at most. A line torn by a crash names a file that does not exist and is dropped as such.
+ * Not thread-safe.
+ */
+public class IndexCheckpoint implements Closeable {
+
+    private final Path path;
+    private final Set<Path> indexedFiles = new HashSet<>();
+    private FileOutputStream log;
+    private Writer logWriter;
+
+    private IndexCheckpoint(Path path) {
+        this.path = path;
+    }
+
+    public static IndexCheckpoint open(Path path) throws IOException {
+        IndexCheckpoint checkpoint = new IndexCheckpoint(path);
+        checkpoint.replay();
+        checkpoint.rewrite();
+        return checkpoint;
+    }
+
+    public boolean contains(Path file) {
+        return indexedFiles.contains(file);
+    }
+
+    public boolean containsAll(Collection<Path> files) {
+        return indexedFiles.containsAll(files);
+    }
+
+    public int size() {
+        return indexedFiles.size();
+    }
+
+    public void markIndexed(Collection<Path> files) throws IOException {
+        for (Path file : files) {
+            logWriter.write('+');
+            logWriter.write(file.toString());
+            logWriter.write('\n');
+        }
+        sync();
+        indexedFiles.addAll(files);
+    }
+
+    /**
+     * Records the replacements as indexed and forgets the originals in a single sync.
+     */
+    public void replace(Collection<Path> originals, Collection<Path> replacements) throws IOException {
+        for (Path file : replacements) {
+            logWriter.write('+');
+            logWriter.write(file.toString());
+            logWriter.write('\n');
+        }
+        for (Path file : originals) {
+            logWriter.write('-');
+            logWriter.write(file.toString());
+            logWriter.write('\n');
+        }
+        sync();
+        indexedFiles.addAll(replacements);
+        indexedFiles.removeAll(originals);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (logWriter != null) {
+            logWriter.close();
+        }
+    }
+
+    private void replay() throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() < 2) {
+                    continue;
+                }
+                Path file = Paths.get(line.substring(1));
+                if (line.charAt(0) == '+') {
+                    indexedFiles.add(file);
+                } else if (line.charAt(0) == '-') {
+                    indexedFiles.remove(file);
+                }
+            }
+        }
+        indexedFiles.removeIf(file -> !Files.exists(file));
+    }
+
+    /* Writes the live files to a temporary file moved over the log, then appends to it from there on */
+    private void rewrite() throws IOException {
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        Path rewritten = path.resolveSibling(path.getFileName() + ".tmp");
+
+        try (FileOutputStream output = new FileOutputStream(rewritten.toFile());
+             Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8))) {
+            for (Path file : indexedFiles) {
+                writer.write('+');
+                writer.write(file.toString());
+                writer.write('\n');
+            }
+            writer.flush();
+            output.getFD().sync();
+        }
+        Files.move(rewritten, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        log = new FileOutputStream(path.toFile(), true);
+        logWriter = new BufferedWriter(new OutputStreamWriter(log, StandardCharsets.UTF_8));
+    }
+
+    private void sync() throws IOException {
+        logWriter.flush();
+        log.getFD().sync();
+    }
+}
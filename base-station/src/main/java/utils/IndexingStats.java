@@ -0,0 +1,88 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/**
+ * Cumulative counters of the bulk requests sent to Elasticsearch since startup, along with the requests in flight.
+ */
+public class IndexingStats {
+
+    private final IntSupplier inFlightRequests;
+    private final AtomicLong bulkRequests = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong documentsIndexed = new AtomicLong();
+    private final AtomicLong documentsFailed = new AtomicLong();
+    private final AtomicLong documentsDropped = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    public IndexingStats(IntSupplier inFlightRequests) {
+        this.inFlightRequests = inFlightRequests;
+    }
+
+    public void recordRequest(long bytes) {
+        bulkRequests.incrementAndGet();
+        bytesSent.addAndGet(bytes);
+    }
+
+    public void recordRetry() {
+        retries.incrementAndGet();
+    }
+
+    public void recordIndexed(int documents) {
+        documentsIndexed.addAndGet(documents);
+    }
+
+    public void recordFailed(int documents) {
+        documentsFailed.addAndGet(documents);
+    }
+
+    public void recordDropped(int documents) {
+        documentsDropped.addAndGet(documents);
+    }
+
+    public int getInFlightRequests() {
+        return inFlightRequests.getAsInt();
+    }
+
+    /**
+     * Requests sent, each retry included.
+     */
+    public long getBulkRequests() {
+        return bulkRequests.get();
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    public long getDocumentsIndexed() {
+        return documentsIndexed.get();
+    }
+
+    /**
+     * Documents rejected for good, a mapping error for instance.
+     */
+    public long getDocumentsFailed() {
+        return documentsFailed.get();
+    }
+
+    /**
+     * Documents given up on after running out of retries; sending them again may still succeed.
+     */
+    public long getDocumentsDropped() {
+        return documentsDropped.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    @Override
+    public String toString() {
+        return "IndexingStats(inFlightRequests=" + getInFlightRequests() + ", bulkRequests=" + getBulkRequests()
+                + ", retries=" + getRetries() + ", documentsIndexed=" + getDocumentsIndexed()
+                + ", documentsFailed=" + getDocumentsFailed() + ", documentsDropped=" + getDocumentsDropped()
+                + ", bytesSent=" + getBytesSent() + ")";
+    }
+}
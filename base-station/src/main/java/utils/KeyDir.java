@@ -0,0 +1,104 @@
+package utils;
+
+/**
+ * In-memory index from key to the location of its latest value. Implementations are thread-safe, and {@link #get}
+ * is expected not to block behind concurrent mutations.
+ */
+public interface KeyDir {
+
+    KeyDirValue get(long key);
+
+    void put(long key, long fileID, short valueSize, long valueOffset, long timestamp);
+
+    /**
+     * Stores the entry only if the key is absent or its current entry is older than {@code timestamp}. The entry it
+     * displaces, or the new entry itself if it loses, is handed to {@code dead} when that is not null.
+     */
+    boolean putIfNewer(long key, long fileID, short valueSize, long valueOffset, long timestamp, DeadEntryConsumer dead);
+
+    default boolean putIfNewer(long key, long fileID, short valueSize, long valueOffset, long timestamp) {
+        return putIfNewer(key, fileID, valueSize, valueOffset, timestamp, null);
+    }
+
+    default boolean putIfNewer(long key, KeyDirValue value) {
+        return putIfNewer(key, value.getFileID(), value.getValueSize(), value.getValueOffset(), value.getTimestamp());
+    }
+
+    /**
+     * Applies {@link #putIfNewer} to the first {@code count} entries, all located in {@code fileID}, and records in
+     * {@code stored} which of them were stored. Implementations may apply the whole batch under a single lock.
+     */
+    default void putAllIfNewer(int count, long[] keys, long fileID, short[] valueSizes, long[] valueOffsets,
+                               long[] timestamps, boolean[] stored, DeadEntryConsumer dead) {
+        for (int i = 0; i < count; i++) {
+            stored[i] = putIfNewer(keys[i], fileID, valueSizes[i], valueOffsets[i], timestamps[i], dead);
+        }
+    }
+
+    default void putAllNewer(KeyDir other) {
+        Cursor cursor = other.cursor();
+
+        while (cursor.next()) {
+            putIfNewer(cursor.key(), cursor.fileID(), cursor.valueSize(), cursor.valueOffset(), cursor.timestamp());
+        }
+    }
+
+    /**
+     * Points the entry at a new location only if it still refers to the record written at {@code timestamp}, so a
+     * relocation never overwrites a newer write.
+     */
+    boolean relocate(long key, long timestamp, long fileID, long valueOffset);
+
+    /**
+     * Applies {@link #relocate} for every entry of {@code relocated} as one atomic step and returns how many moved.
+     * Entries that were superseded in the meantime are handed to {@code rejected} when that is not null.
+     */
+    int relocateAll(KeyDir relocated, DeadEntryConsumer rejected);
+
+    default int relocateAll(KeyDir relocated) {
+        return relocateAll(relocated, null);
+    }
+
+    /**
+     * Removes every key of {@code removed} whose entry still refers to the record written at the timestamp given there,
+     * and returns how many were removed. A cursor running concurrently may skip or repeat entries.
+     */
+    int removeAll(KeyDir removed);
+
+    int size();
+
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+
+    void clear();
+
+    Cursor cursor();
+
+    /**
+     * Receives the location of a record that no key refers to anymore.
+     */
+    interface DeadEntryConsumer {
+
+        void accept(long fileID, short valueSize);
+    }
+
+    /**
+     * Allocation-free, weakly consistent iterator over the entries; the accessors refer to the entry of the last
+     * successful {@link #next()}.
+     */
+    interface Cursor {
+
+        boolean next();
+
+        long key();
+
+        long fileID();
+
+        short valueSize();
+
+        long valueOffset();
+
+        long timestamp();
+    }
+}
@@ -0,0 +1,85 @@
+package utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bounded LRU of read-only mappings of immutable Bitcask files, keyed by file ID.
+ * <p>
+ * Mappings cannot be unmapped explicitly; an evicted mapping stays valid for readers still holding it and is
+ * released once it becomes unreachable. This is also what keeps a read safe when a merge deletes its file.
+ * <p>
+ * A merge {@link #retire retires} a file before deleting it. A reader that opened the file just before that still gets
+ * its mapping, but the mapping is not cached, so a deleted file never stays mapped.
+ */
+public class MappedFileCache {
+
+    private final String directory;
+    private final Map<Long, MappedByteBuffer> mappings;
+    private final Set<Long> retiredFileIDs = new HashSet<>();
+
+    public MappedFileCache(String directory, int maxMappings) {
+        this.directory = directory;
+        this.mappings = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, MappedByteBuffer> eldest) {
+                return size() > maxMappings;
+            }
+        };
+    }
+
+    public ByteBuffer get(long fileID) throws IOException {
+        synchronized (mappings) {
+            MappedByteBuffer mapping = mappings.get(fileID);
+            if (mapping != null) {
+                return mapping;
+            }
+        }
+
+        MappedByteBuffer mapping;
+        try (FileChannel channel = FileChannel.open(Path.of(directory, String.valueOf(fileID)), StandardOpenOption.READ)) {
+            mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        synchronized (mappings) {
+            if (retiredFileIDs.contains(fileID)) {
+                return mapping;
+            }
+            MappedByteBuffer existing = mappings.putIfAbsent(fileID, mapping);
+            return existing != null ? existing : mapping;
+        }
+    }
+
+    /**
+     * Copies {@code size} bytes at {@code offset} out of the file's mapping.
+     */
+    public byte[] read(long fileID, long offset, int size) throws IOException {
+        ByteBuffer mapping = get(fileID);
+
+        if (offset < 0 || offset + size > mapping.limit()) {
+            throw new IOException("Value at " + offset + " of size " + size + " is outside of bitcask file " + fileID);
+        }
+
+        byte[] value = new byte[size];
+        mapping.get((int) offset, value);
+        return value;
+    }
+
+    /**
+     * Drops the file's mapping and stops caching new ones, so the file can be deleted. File IDs are never reused.
+     */
+    public void retire(long fileID) {
+        synchronized (mappings) {
+            retiredFileIDs.add(fileID);
+            mappings.remove(fileID);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cumulative counters of the Bitcask merges run since startup.
+ */
+public class MergeStats {
+
+    private final AtomicLong merges = new AtomicLong();
+    private final AtomicLong filesMerged = new AtomicLong();
+    private final AtomicLong bytesReclaimed = new AtomicLong();
+    private final AtomicLong keysDropped = new AtomicLong();
+    private final AtomicLong totalDurationMillis = new AtomicLong();
+    private final AtomicLong lastDurationMillis = new AtomicLong();
+
+    public void record(int files, long reclaimedBytes, long droppedKeys, long durationMillis) {
+        merges.incrementAndGet();
+        filesMerged.addAndGet(files);
+        bytesReclaimed.addAndGet(reclaimedBytes);
+        keysDropped.addAndGet(droppedKeys);
+        totalDurationMillis.addAndGet(durationMillis);
+        lastDurationMillis.set(durationMillis);
+    }
+
+    public long getMerges() {
+        return merges.get();
+    }
+
+    public long getFilesMerged() {
+        return filesMerged.get();
+    }
+
+    public long getBytesReclaimed() {
+        return bytesReclaimed.get();
+    }
+
+    /**
+     * Expired keys, deleted keys whose tombstones were no longer needed, and keys whose records failed their checksum.
+     */
+    public long getKeysDropped() {
+        return keysDropped.get();
+    }
+
+    public long getTotalDurationMillis() {
+        return totalDurationMillis.get();
+    }
+
+    public long getLastDurationMillis() {
+        return lastDurationMillis.get();
+    }
+
+    @Override
+    public String toString() {
+        return "MergeStats(merges=" + getMerges() + ", filesMerged=" + getFilesMerged()
+                + ", bytesReclaimed=" + getBytesReclaimed() + ", keysDropped=" + getKeysDropped()
+                + ", totalDurationMillis=" + getTotalDurationMillis()
+                + ", lastDurationMillis=" + getLastDurationMillis() + ")";
+    }
+}
@@ -0,0 +1,108 @@
+package utils;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+
+import static utils.Settings.setting;
+
+/**
+ * Tuning knobs of the Parquet archive, read like {@link BitcaskOptions}: a system property such as
+ * {@code parquet.target.file.size}, then the environment variable {@code PARQUET_TARGET_FILE_SIZE}, then the default.
+ */
+@Getter
+@Builder
+@ToString
+public class ParquetOptions {
+
+    /**
+     * Size at which an archive file is closed and the next rows of its partition go to a new file.
+     */
+    @Builder.Default
+    private long targetFileSize = 128L * 1024 * 1024;
+
+    /**
+     * Age at which an archive file is closed even if it is small, which bounds how long rows stay invisible to readers.
+     * It also bounds how far the consumer's committed offsets trail: they only move past rows in closed files, and
+     * a crash makes up to this age of messages be read again. Compaction merges the small files this leaves behind.
+     */
+    @Builder.Default
+    private long maxFileAgeMillis = 60 * 1000;
+
+    /**
+     * Number of partitions with an open file; the least recently written one is closed to make room. Below the number
+     * of partitions written concurrently, every flush evicts and files are small again, which
+     * {@link FlushStats#getEvictedFiles()} shows. Each station writes one partition, and two around midnight, so this
+     * should be twice the number of stations; an open file holds about 220 KB of heap at the default page size.
+     */
+    @Builder.Default
+    private int maxOpenWriters = 2048;
+
+    @Builder.Default
+    private CompressionCodecName compressionCodec = CompressionCodecName.ZSTD;
+
+    /**
+     * Uncompressed bytes buffered per open file before a row group is written; min/max statistics are kept per row
+     * group and per page.
+     */
+    @Builder.Default
+    private int rowGroupSize = 16 * 1024 * 1024;
+
+    /**
+     * Uncompressed bytes per page, which every open file buffers per column before compressing; the heap of an open
+     * file grows with it.
+     */
+    @Builder.Default
+    private int pageSize = 64 * 1024;
+
+    @Builder.Default
+    private boolean dictionaryEncoding = true;
+
+    /**
+     * Number of full batches that may wait for the flush thread before the consumer blocks.
+     */
+    @Builder.Default
+    private int flushQueueCapacity = 4;
+
+    /**
+     * How long after its end a rollup window still accepts late readings, by the station's newest reading.
+     */
+    @Builder.Default
+    private long rollupGracePeriodMillis = 5 * 60 * 1000;
+
+    /**
+     * How long after its day ended a partition is compacted, which leaves time for late readings and open files.
+     */
+    @Builder.Default
+    private long compactionDelayMillis = 60 * 60 * 1000;
+
+    @Builder.Default
+    private long compactionIntervalMillis = 10 * 60 * 1000;
+
+    /**
+     * Files merged in one compaction pass, which reads them whole into memory. A partition with more is compacted over
+     * several runs, smallest files first.
+     */
+    @Builder.Default
+    private int compactionMaxFiles = 64;
+
+    public static ParquetOptions fromEnvironment() {
+        ParquetOptions defaults = builder().build();
+
+        return builder()
+                .targetFileSize(Long.parseLong(setting("PARQUET_TARGET_FILE_SIZE", defaults.targetFileSize)))
+                .maxFileAgeMillis(Long.parseLong(setting("PARQUET_MAX_FILE_AGE_MS", defaults.maxFileAgeMillis)))
+                .maxOpenWriters(Integer.parseInt(setting("PARQUET_MAX_OPEN_WRITERS", defaults.maxOpenWriters)))
+                .compressionCodec(CompressionCodecName.valueOf(setting("PARQUET_COMPRESSION_CODEC", defaults.compressionCodec)))
+                .rowGroupSize(Integer.parseInt(setting("PARQUET_ROW_GROUP_SIZE", defaults.rowGroupSize)))
+                .pageSize(Integer.parseInt(setting("PARQUET_PAGE_SIZE", defaults.pageSize)))
+                .dictionaryEncoding(Boolean.parseBoolean(setting("PARQUET_DICTIONARY_ENCODING", defaults.dictionaryEncoding)))
+                .flushQueueCapacity(Integer.parseInt(setting("PARQUET_FLUSH_QUEUE_CAPACITY", defaults.flushQueueCapacity)))
+                .rollupGracePeriodMillis(Long.parseLong(setting("PARQUET_ROLLUP_GRACE_PERIOD_MS", defaults.rollupGracePeriodMillis)))
+                .compactionDelayMillis(Long.parseLong(setting("PARQUET_COMPACTION_DELAY_MS", defaults.compactionDelayMillis)))
+                .compactionIntervalMillis(Long.parseLong(setting("PARQUET_COMPACTION_INTERVAL_MS", defaults.compactionIntervalMillis)))
+                .compactionMaxFiles(Integer.parseInt(setting("PARQUET_COMPACTION_MAX_FILES", defaults.compactionMaxFiles)))
+                .build();
+    }
+}
@@ -0,0 +1,193 @@
+package utils;
+
+import dto.StationStatusMsgDTO;
+import org.apache.avro.Schema;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.hadoop.ParquetFileWriter;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Keeps one open Parquet file per partition directory, so rows of a partition accumulate into large files with full
+ * row groups instead of a new file per flush. Rows must be written in {@code statusTimestamp} order; a row older than
+ * the last one written starts a new file, so every file stays sorted and its min/max statistics stay tight.
+ * <p>
+ * A file is written under a name ending in {@link #IN_PROGRESS_SUFFIX} and renamed to {@code .parquet} once closed,
+ * so readers only ever see complete files. It is closed when it reaches the target size or age, or when its partition
+ * is the least recently written one and the number of open files exceeds the cap, and then handed to the
+ * {@code closedFiles} callback under its final name. Not thread-safe.
+ * <p>
+ * Every row is written along with a number that must not decrease from one row to the next, such as its position in
+ * the stream; {@link #oldestOpenRow()} tells from which number on rows may still be in an open file, and so would be
+ * lost in a crash.
+ */
+public class ParquetWriterPool {
+
+    public static final String IN_PROGRESS_SUFFIX = ".parquet.inprogress";
+
+    private final Schema avroSchema;
+    private final ParquetOptions options;
+    private final FlushStats flushStats;
+    private final Logger logger;
+    private final Configuration configuration = new Configuration();
+    private final LinkedHashMap<String, RollingWriter> writers = new LinkedHashMap<>(16, 0.75f, true);
+    private final Consumer<Path> closedFiles;
+
+    public ParquetWriterPool(Schema avroSchema, ParquetOptions options, FlushStats flushStats, Logger logger,
+                             Consumer<Path> closedFiles) {
+        this.avroSchema = avroSchema;
+        this.options = options;
+        this.flushStats = flushStats;
+        this.logger = logger;
+        this.closedFiles = closedFiles;
+    }
+
+    private static final class RollingWriter {
+
+        final ParquetWriter<StationStatusMsgDTO> writer;
+        final Path inProgressPath;
+        final Path path;
+        final long openedAt;
+        final long firstRow;
+        long lastTimestamp = Long.MIN_VALUE;
+
+        RollingWriter(ParquetWriter<StationStatusMsgDTO> writer, Path inProgressPath, Path path, long openedAt,
+                      long firstRow) {
+            this.writer = writer;
+            this.inProgressPath = inProgressPath;
+            this.path = path;
+            this.openedAt = openedAt;
+            this.firstRow = firstRow;
+        }
+    }
+
+    public void write(String partitionDirectory, StationStatusMsgDTO status, long row) throws IOException {
+        RollingWriter rollingWriter = writers.get(partitionDirectory);
+
+        if (rollingWriter != null && status.getStatusTimestamp() < rollingWriter.lastTimestamp) {
+            writers.remove(partitionDirectory);
+            close(rollingWriter);
+            rollingWriter = null;
+        }
+        if (rollingWriter == null) {
+            if (writers.size() >= options.getMaxOpenWriters()) {
+                Iterator<RollingWriter> eldest = writers.values().iterator();
+                RollingWriter evicted = eldest.next();
+                eldest.remove();
+                close(evicted);
+                flushStats.recordEvictedFile();
+            }
+            rollingWriter = open(partitionDirectory, row);
+            writers.put(partitionDirectory, rollingWriter);
+        }
+
+        rollingWriter.writer.write(status);
+        rollingWriter.lastTimestamp = status.getStatusTimestamp();
+
+        if (rollingWriter.writer.getDataSize() >= options.getTargetFileSize()) {
+            writers.remove(partitionDirectory);
+            close(rollingWriter);
+        }
+    }
+
+    /**
+     * Closes the files that reached the maximum age.
+     */
+    public void closeExpired() throws IOException {
+        long now = System.currentTimeMillis();
+        List<RollingWriter> expired = new ArrayList<>();
+
+        Iterator<RollingWriter> iterator = writers.values().iterator();
+        while (iterator.hasNext()) {
+            RollingWriter rollingWriter = iterator.next();
+            if (now - rollingWriter.openedAt >= options.getMaxFileAgeMillis()) {
+                iterator.remove();
+                expired.add(rollingWriter);
+            }
+        }
+
+        IOException failure = null;
+        for (RollingWriter rollingWriter : expired) {
+            try {
+                close(rollingWriter);
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    public void closeAll() throws IOException {
+        IOException failure = null;
+
+        for (RollingWriter rollingWriter : writers.values()) {
+            try {
+                close(rollingWriter);
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        writers.clear();
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    public int openWriters() {
+        return writers.size();
+    }
+
+    /**
+     * The lowest number written to a file still open, or {@link Long#MAX_VALUE} if no file is open.
+     */
+    public long oldestOpenRow() {
+        long oldest = Long.MAX_VALUE;
+
+        for (RollingWriter rollingWriter : writers.values()) {
+            oldest = Math.min(oldest, rollingWriter.firstRow);
+        }
+        return oldest;
+    }
+
+    private RollingWriter open(String partitionDirectory, long firstRow) throws IOException {
+        String fileName = UUID.randomUUID().toString();
+        Path inProgressPath = new Path(partitionDirectory, fileName + IN_PROGRESS_SUFFIX);
+        Path path = new Path(partitionDirectory, fileName + ".parquet");
+
+        ParquetWriter<StationStatusMsgDTO> writer = StationStatusWriteSupport
+                .builder(inProgressPath, avroSchema)
+                .withConf(configuration)
+                .withCompressionCodec(options.getCompressionCodec())
+                .withRowGroupSize(options.getRowGroupSize())
+                .withPageSize(options.getPageSize())
+                .withDictionaryEncoding(options.isDictionaryEncoding())
+                .withWriteMode(ParquetFileWriter.Mode.CREATE)
+                .build();
+        return new RollingWriter(writer, inProgressPath, path, System.currentTimeMillis(), firstRow);
+    }
+
+    private void close(RollingWriter rollingWriter) throws IOException {
+        rollingWriter.writer.close();
+
+        FileSystem fileSystem = rollingWriter.path.getFileSystem(configuration);
+        if (!fileSystem.rename(rollingWriter.inProgressPath, rollingWriter.path)) {
+            throw new IOException("Failed to rename " + rollingWriter.inProgressPath + " to " + rollingWriter.path);
+        }
+        logger.debug("Closed parquet file {}", rollingWriter.path);
+        closedFiles.accept(rollingWriter.path);
+    }
+}
@@ -0,0 +1,32 @@
+package utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces a byte stream to a fixed rate, allowing bursts of up to one tenth of a second worth of bytes.
+ */
+public class RateLimiter {
+
+    private static final long MAX_BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final long bytesPerSecond;
+    private long nextFreeNanos = System.nanoTime();
+
+    public RateLimiter(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public void acquire(long bytes) throws InterruptedException {
+        if (bytesPerSecond <= 0) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        long start = Math.max(nextFreeNanos, now - MAX_BURST_NANOS);
+        nextFreeNanos = start + bytes * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond;
+
+        if (nextFreeNanos > now) {
+            TimeUnit.NANOSECONDS.sleep(nextFreeNanos - now);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package utils;
+
+/**
+ * Width of the windows station readings are rolled up into. Windows are aligned to the UTC epoch.
+ */
+public enum RollupResolution {
+
+    HOUR("hour", 60 * 60 * 1000),
+
+    DAY("day", 24 * 60 * 60 * 1000);
+
+    private final String directoryName;
+    private final long millis;
+
+    RollupResolution(String directoryName, long millis) {
+        this.directoryName = directoryName;
+        this.millis = millis;
+    }
+
+    public String getDirectoryName() {
+        return directoryName;
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    public static RollupResolution fromDirectoryName(String directoryName) {
+        for (RollupResolution resolution : values()) {
+            if (resolution.directoryName.equals(directoryName)) {
+                return resolution;
+            }
+        }
+        throw new IllegalArgumentException("Unknown rollup resolution: " + directoryName);
+    }
+
+    public long windowStart(long timestamp) {
+        return Math.floorDiv(timestamp, millis) * millis;
+    }
+}
@@ -0,0 +1,19 @@
+package utils;
+
+/**
+ * Lookup shared by the options classes: a system property such as {@code bitcask.max.file.size}, then the matching
+ * environment variable {@code BITCASK_MAX_FILE_SIZE}, then the default.
+ */
+public final class Settings {
+
+    private Settings() {
+    }
+
+    public static String setting(String environmentVariable, Object defaultValue) {
+        String property = System.getProperty(environmentVariable.toLowerCase().replace('_', '.'));
+        if (property != null) {
+            return property;
+        }
+        return System.getenv().getOrDefault(environmentVariable, String.valueOf(defaultValue));
+    }
+}
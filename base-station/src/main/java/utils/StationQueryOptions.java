@@ -0,0 +1,28 @@
+package utils;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+import static utils.Settings.setting;
+
+/**
+ * Settings of the station query server, read like {@link BitcaskOptions}: a system property such as
+ * {@code station.query.port}, then the environment variable {@code STATION_QUERY_PORT}, then the default.
+ */
+@Getter
+@Builder
+@ToString
+public class StationQueryOptions {
+
+    @Builder.Default
+    private int port = 8080;
+
+    public static StationQueryOptions fromEnvironment() {
+        StationQueryOptions defaults = builder().build();
+
+        return builder()
+                .port(Integer.parseInt(setting("STATION_QUERY_PORT", defaults.port)))
+                .build();
+    }
+}
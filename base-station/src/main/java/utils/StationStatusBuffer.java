@@ -0,0 +1,129 @@
+package utils;
+
+import dto.StationStatusMsgDTO;
+import dto.WeatherDTO;
+
+import java.util.Arrays;
+
+/**
+ * Column-wise copy of buffered station statuses. Adding a message copies its fields into primitive arrays, so the
+ * buffer holds no per-message objects and the caller may reuse the message right away.
+ */
+public class StationStatusBuffer {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] stationIds = new long[INITIAL_CAPACITY];
+    private long[] sequenceNumbers = new long[INITIAL_CAPACITY];
+    private String[] batteryStatuses = new String[INITIAL_CAPACITY];
+    private long[] statusTimestamps = new long[INITIAL_CAPACITY];
+    private int[] humidities = new int[INITIAL_CAPACITY];
+    private int[] temperatures = new int[INITIAL_CAPACITY];
+    private int[] windSpeeds = new int[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * Copies the message; it must carry a battery status and a weather reading.
+     */
+    public void add(StationStatusMsgDTO status) {
+        WeatherDTO weather = status.getWeather();
+        if (weather == null) {
+            throw new IllegalArgumentException("Station status without a weather reading: " + status);
+        }
+        if (status.getBatteryStatus() == null) {
+            throw new IllegalArgumentException("Station status without a battery status: " + status);
+        }
+        if (size == stationIds.length) {
+            grow();
+        }
+
+        stationIds[size] = status.getStationId();
+        sequenceNumbers[size] = status.getSequenceNumber();
+        batteryStatuses[size] = status.getBatteryStatus();
+        statusTimestamps[size] = status.getStatusTimestamp();
+        humidities[size] = weather.getHumidity();
+        temperatures[size] = weather.getTemperature();
+        windSpeeds[size] = weather.getWindSpeed();
+        size++;
+    }
+
+    /**
+     * Overwrites {@code target}, including its weather holder, with the message at {@code index}.
+     */
+    public void copyTo(int index, StationStatusMsgDTO target) {
+        if (target.getWeather() == null) {
+            target.setWeather(new WeatherDTO());
+        }
+
+        target.setStationId(stationIds[index]);
+        target.setSequenceNumber(sequenceNumbers[index]);
+        target.setBatteryStatus(batteryStatuses[index]);
+        target.setStatusTimestamp(statusTimestamps[index]);
+        target.getWeather().setHumidity(humidities[index]);
+        target.getWeather().setTemperature(temperatures[index]);
+        target.getWeather().setWindSpeed(windSpeeds[index]);
+    }
+
+    /**
+     * Sorts the buffered messages by {@code statusTimestamp}. Messages mostly arrive in order, so this is an insertion
+     * sort that costs a single pass when they already are.
+     */
+    public void sortByTimestamp() {
+        for (int i = 1; i < size; i++) {
+            if (statusTimestamps[i] >= statusTimestamps[i - 1]) {
+                continue;
+            }
+
+            long stationId = stationIds[i];
+            long sequenceNumber = sequenceNumbers[i];
+            String batteryStatus = batteryStatuses[i];
+            long statusTimestamp = statusTimestamps[i];
+            int humidity = humidities[i];
+            int temperature = temperatures[i];
+            int windSpeed = windSpeeds[i];
+
+            int j = i;
+            for (; j > 0 && statusTimestamps[j - 1] > statusTimestamp; j--) {
+                stationIds[j] = stationIds[j - 1];
+                sequenceNumbers[j] = sequenceNumbers[j - 1];
+                batteryStatuses[j] = batteryStatuses[j - 1];
+                statusTimestamps[j] = statusTimestamps[j - 1];
+                humidities[j] = humidities[j - 1];
+                temperatures[j] = temperatures[j - 1];
+                windSpeeds[j] = windSpeeds[j - 1];
+            }
+
+            stationIds[j] = stationId;
+            sequenceNumbers[j] = sequenceNumber;
+            batteryStatuses[j] = batteryStatus;
+            statusTimestamps[j] = statusTimestamp;
+            humidities[j] = humidity;
+            temperatures[j] = temperature;
+            windSpeeds[j] = windSpeed;
+        }
+    }
+
+    public long getStatusTimestamp(int index) {
+        return statusTimestamps[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private void grow() {
+        int capacity = stationIds.length << 1;
+
+        stationIds = Arrays.copyOf(stationIds, capacity);
+        sequenceNumbers = Arrays.copyOf(sequenceNumbers, capacity);
+        batteryStatuses = Arrays.copyOf(batteryStatuses, capacity);
+        statusTimestamps = Arrays.copyOf(statusTimestamps, capacity);
+        humidities = Arrays.copyOf(humidities, capacity);
+        temperatures = Arrays.copyOf(temperatures, capacity);
+        windSpeeds = Arrays.copyOf(windSpeeds, capacity);
+    }
+}
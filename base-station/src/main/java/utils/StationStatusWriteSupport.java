@@ -0,0 +1,135 @@
+package utils;
+
+import dto.StationStatusMsgDTO;
+import dto.WeatherDTO;
+import org.apache.avro.Schema;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.avro.AvroSchemaConverter;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.api.WriteSupport;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.io.api.RecordConsumer;
+import org.apache.parquet.schema.MessageType;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes {@link StationStatusMsgDTO}s straight to Parquet columns, without building an Avro record per message. The
+ * Parquet schema is derived from the Avro schema and the Avro schema is stored in the file metadata, so the files read
+ * back exactly like the ones written by {@code AvroParquetWriter}.
+ */
+public class StationStatusWriteSupport extends WriteSupport<StationStatusMsgDTO> {
+
+    // Key under which parquet-avro looks for the writer's Avro schema.
+    private static final String AVRO_SCHEMA_KEY = "parquet.avro.schema";
+    private static final Map<String, Binary> BATTERY_STATUSES = Map.of(
+            "low", Binary.fromString("low"),
+            "medium", Binary.fromString("medium"),
+            "high", Binary.fromString("high"));
+
+    private final Schema avroSchema;
+    private final MessageType schema;
+    private final Map<String, String> extraMetaData;
+    private RecordConsumer recordConsumer;
+
+    public StationStatusWriteSupport(Schema avroSchema) {
+        this(avroSchema, Map.of());
+    }
+
+    public StationStatusWriteSupport(Schema avroSchema, Map<String, String> extraMetaData) {
+        this.avroSchema = avroSchema;
+        this.schema = new AvroSchemaConverter().convert(avroSchema);
+        this.extraMetaData = extraMetaData;
+    }
+
+    public static Builder builder(Path path, Schema avroSchema) {
+        return new Builder(path, avroSchema);
+    }
+
+    @Override
+    public String getName() {
+        return "avro";
+    }
+
+    @Override
+    public WriteContext init(Configuration configuration) {
+        Map<String, String> metaData = new HashMap<>(extraMetaData);
+        metaData.put(AVRO_SCHEMA_KEY, avroSchema.toString());
+        return new WriteContext(schema, metaData);
+    }
+
+    @Override
+    public void prepareForWrite(RecordConsumer recordConsumer) {
+        this.recordConsumer = recordConsumer;
+    }
+
+    @Override
+    public void write(StationStatusMsgDTO status) {
+        WeatherDTO weather = status.getWeather();
+
+        recordConsumer.startMessage();
+        writeLong(0, "stationId", status.getStationId());
+        writeLong(1, "sequenceNumber", status.getSequenceNumber());
+        recordConsumer.startField("batteryStatus", 2);
+        recordConsumer.addBinary(batteryStatus(status.getBatteryStatus()));
+        recordConsumer.endField("batteryStatus", 2);
+        writeLong(3, "statusTimestamp", status.getStatusTimestamp());
+
+        recordConsumer.startField("weather", 4);
+        recordConsumer.startGroup();
+        writeInt(0, "humidity", weather.getHumidity());
+        writeInt(1, "temperature", weather.getTemperature());
+        writeInt(2, "windSpeed", weather.getWindSpeed());
+        recordConsumer.endGroup();
+        recordConsumer.endField("weather", 4);
+        recordConsumer.endMessage();
+    }
+
+    private static Binary batteryStatus(String batteryStatus) {
+        Binary binary = BATTERY_STATUSES.get(batteryStatus);
+        return binary != null ? binary : Binary.fromString(batteryStatus);
+    }
+
+    private void writeLong(int index, String field, long value) {
+        recordConsumer.startField(field, index);
+        recordConsumer.addLong(value);
+        recordConsumer.endField(field, index);
+    }
+
+    private void writeInt(int index, String field, int value) {
+        recordConsumer.startField(field, index);
+        recordConsumer.addInteger(value);
+        recordConsumer.endField(field, index);
+    }
+
+    public static class Builder extends ParquetWriter.Builder<StationStatusMsgDTO, Builder> {
+
+        private final Schema avroSchema;
+        private Map<String, String> extraMetaData = Map.of();
+
+        private Builder(Path path, Schema avroSchema) {
+            super(path);
+            this.avroSchema = avroSchema;
+        }
+
+        /**
+         * Key-value pairs stored in the file footer next to the Avro schema.
+         */
+        public Builder withExtraMetaData(Map<String, String> extraMetaData) {
+            this.extraMetaData = extraMetaData;
+            return this;
+        }
+
+        @Override
+        protected Builder self() {
+            return this;
+        }
+
+        @Override
+        protected WriteSupport<StationStatusMsgDTO> getWriteSupport(Configuration configuration) {
+            return new StationStatusWriteSupport(avroSchema, extraMetaData);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package utils;
+
+/**
+ * When appended Bitcask records are forced to disk.
+ */
+public enum SyncPolicy {
+
+    /** Every record is written and forced on its own. */
+    RECORD,
+
+    /** Each batch drained from the write queue is written at once and forced once. */
+    BATCH,
+
+    /** Batches are written as they arrive and forced at most once per sync interval. */
+    INTERVAL
+}
@@ -0,0 +1,123 @@
+package utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU of the latest value per key, limited both in entries and in value bytes. A limit of 0 disables it.
+ * <p>
+ * Entries carry the timestamp of the record they were read from, so a reader filling the cache with a value it read
+ * from disk can never replace a newer value put by the writer.
+ */
+public class ValueCache {
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final Map<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final CacheStats stats = new CacheStats();
+    private long bytes;
+
+    private record Entry(long timestamp, byte[] value) {
+    }
+
+    public ValueCache(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    public boolean isEnabled() {
+        return maxEntries > 0 && maxBytes > 0;
+    }
+
+    /**
+     * Returns the cached value, which callers must not modify, or null on a miss.
+     */
+    public byte[] get(long key) {
+        if (!isEnabled()) {
+            return null;
+        }
+
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+
+        if (entry == null) {
+            stats.recordMiss();
+            return null;
+        }
+        stats.recordHit();
+        return entry.value();
+    }
+
+    public void putIfNewer(long key, long timestamp, byte[] value) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        synchronized (entries) {
+            Entry current = entries.get(key);
+            if (current != null) {
+                if (current.timestamp() >= timestamp) {
+                    return;
+                }
+                remove(key, current);
+            }
+
+            if (value.length <= maxBytes) {
+                entries.put(key, new Entry(timestamp, value));
+                bytes += value.length;
+                evict();
+            }
+        }
+    }
+
+    /**
+     * Drops the entry of {@code key} if it still holds the value written at {@code timestamp}.
+     */
+    public void invalidate(long key, long timestamp) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        synchronized (entries) {
+            Entry current = entries.get(key);
+            if (current != null && current.timestamp() == timestamp) {
+                remove(key, current);
+            }
+        }
+    }
+
+    public void remove(long key) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        synchronized (entries) {
+            Entry current = entries.get(key);
+            if (current != null) {
+                remove(key, current);
+            }
+        }
+    }
+
+    private void remove(long key, Entry entry) {
+        entries.remove(key);
+        bytes -= entry.value().length;
+    }
+
+    private void evict() {
+        Iterator<Entry> eldest = entries.values().iterator();
+
+        while ((entries.size() > maxEntries || bytes > maxBytes) && eldest.hasNext()) {
+            bytes -= eldest.next().value().length;
+            eldest.remove();
+            stats.recordEviction();
+        }
+    }
+
+    public CacheStats getStats() {
+        return stats;
+    }
+}
@@ -0,0 +1,52 @@
+package utils;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Running min/max/sum of one station's readings over one window. Sums are kept instead of averages so that rows
+ * written for the same window, after a restart or a reading past the grace period, can be merged by readers.
+ */
+@Getter
+@ToString
+public class WeatherRollup {
+
+    private final long stationId;
+    private final RollupResolution resolution;
+    private final long windowStart;
+    private long readings;
+    private int minTemperature = Integer.MAX_VALUE;
+    private int maxTemperature = Integer.MIN_VALUE;
+    private long sumTemperature;
+    private int minHumidity = Integer.MAX_VALUE;
+    private int maxHumidity = Integer.MIN_VALUE;
+    private long sumHumidity;
+
+    public WeatherRollup(long stationId, RollupResolution resolution, long windowStart) {
+        this.stationId = stationId;
+        this.resolution = resolution;
+        this.windowStart = windowStart;
+    }
+
+    public void add(int temperature, int humidity) {
+        merge(1, temperature, temperature, temperature, humidity, humidity, humidity);
+    }
+
+    /**
+     * Folds in the aggregates of another row of the same window.
+     */
+    public void merge(long readings, int minTemperature, int maxTemperature, long sumTemperature,
+                      int minHumidity, int maxHumidity, long sumHumidity) {
+        this.readings += readings;
+        this.minTemperature = Math.min(this.minTemperature, minTemperature);
+        this.maxTemperature = Math.max(this.maxTemperature, maxTemperature);
+        this.sumTemperature += sumTemperature;
+        this.minHumidity = Math.min(this.minHumidity, minHumidity);
+        this.maxHumidity = Math.max(this.maxHumidity, maxHumidity);
+        this.sumHumidity += sumHumidity;
+    }
+
+    public long getWindowEnd() {
+        return windowStart + resolution.getMillis();
+    }
+}
@@ -0,0 +1,108 @@
+package utils;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.api.WriteSupport;
+import org.apache.parquet.io.api.RecordConsumer;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.MessageTypeParser;
+
+import java.util.Map;
+
+/**
+ * Writes {@link WeatherRollup}s as flat Parquet rows. The resolution is not a column, it is part of the directory.
+ */
+public class WeatherRollupWriteSupport extends WriteSupport<WeatherRollup> {
+
+    public static final MessageType SCHEMA = MessageTypeParser.parseMessageType("message WeatherRollup {\n"
+            + "  required int64 stationId;\n"
+            + "  required int64 windowStart;\n"
+            + "  required int64 readings;\n"
+            + "  required int32 minTemperature;\n"
+            + "  required int32 maxTemperature;\n"
+            + "  required int64 sumTemperature;\n"
+            + "  required int32 minHumidity;\n"
+            + "  required int32 maxHumidity;\n"
+            + "  required int64 sumHumidity;\n"
+            + "}");
+
+    private final Map<String, String> extraMetaData;
+    private RecordConsumer recordConsumer;
+
+    public WeatherRollupWriteSupport() {
+        this(Map.of());
+    }
+
+    public WeatherRollupWriteSupport(Map<String, String> extraMetaData) {
+        this.extraMetaData = extraMetaData;
+    }
+
+    public static Builder builder(Path path) {
+        return new Builder(path);
+    }
+
+    @Override
+    public WriteContext init(Configuration configuration) {
+        return new WriteContext(SCHEMA, extraMetaData);
+    }
+
+    @Override
+    public void prepareForWrite(RecordConsumer recordConsumer) {
+        this.recordConsumer = recordConsumer;
+    }
+
+    @Override
+    public void write(WeatherRollup rollup) {
+        recordConsumer.startMessage();
+        writeLong(0, "stationId", rollup.getStationId());
+        writeLong(1, "windowStart", rollup.getWindowStart());
+        writeLong(2, "readings", rollup.getReadings());
+        writeInt(3, "minTemperature", rollup.getMinTemperature());
+        writeInt(4, "maxTemperature", rollup.getMaxTemperature());
+        writeLong(5, "sumTemperature", rollup.getSumTemperature());
+        writeInt(6, "minHumidity", rollup.getMinHumidity());
+        writeInt(7, "maxHumidity", rollup.getMaxHumidity());
+        writeLong(8, "sumHumidity", rollup.getSumHumidity());
+        recordConsumer.endMessage();
+    }
+
+    private void writeLong(int index, String field, long value) {
+        recordConsumer.startField(field, index);
+        recordConsumer.addLong(value);
+        recordConsumer.endField(field, index);
+    }
+
+    private void writeInt(int index, String field, int value) {
+        recordConsumer.startField(field, index);
+        recordConsumer.addInteger(value);
+        recordConsumer.endField(field, index);
+    }
+
+    public static class Builder extends ParquetWriter.Builder<WeatherRollup, Builder> {
+
+        private Map<String, String> extraMetaData = Map.of();
+
+        private Builder(Path path) {
+            super(path);
+        }
+
+        /**
+         * Key-value pairs stored in the file footer.
+         */
+        public Builder withExtraMetaData(Map<String, String> extraMetaData) {
+            this.extraMetaData = extraMetaData;
+            return this;
+        }
+
+        @Override
+        protected Builder self() {
+            return this;
+        }
+
+        @Override
+        protected WriteSupport<WeatherRollup> getWriteSupport(Configuration configuration) {
+            return new WeatherRollupWriteSupport(extraMetaData);
+        }
+    }
+}
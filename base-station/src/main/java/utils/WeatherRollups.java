@@ -0,0 +1,139 @@
+package utils;
+
+import dto.StationStatusMsgDTO;
+import dto.WeatherDTO;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Incremental hourly and daily rollups of every station's readings, kept in memory until their windows close.
+ * <p>
+ * Readings are placed in windows by {@code statusTimestamp}, so late and out-of-order readings still land in the right
+ * window. A window closes once the station's newest reading is a grace period past its end, or once the wall clock
+ * is, so the last windows of a station that went quiet are not held back. A reading for a window that closed already
+ * is too late and rejected. A station whose windows all closed by the wall clock is forgotten, so stations that stop
+ * reporting do not accumulate; a reading it sends later opens its window again, and compaction merges the rows written
+ * for the same window. Not thread-safe.
+ */
+public class WeatherRollups {
+
+    private static final RollupResolution[] RESOLUTIONS = RollupResolution.values();
+
+    private final long gracePeriodMillis;
+    private final Map<Long, StationWindows> stations = new HashMap<>();
+    private List<WeatherRollup> closed = new ArrayList<>();
+
+    public WeatherRollups(long gracePeriodMillis) {
+        this.gracePeriodMillis = gracePeriodMillis;
+    }
+
+    private static final class StationWindows {
+
+        // Newest statusTimestamp seen from the station, which closes its windows.
+        long watermark = Long.MIN_VALUE;
+        // A station has at most a few open windows per resolution, so a list beats a map here.
+        final List<WeatherRollup> open = new ArrayList<>();
+    }
+
+    /**
+     * Adds the reading to its hourly and daily windows, and returns false if it is too late for either of them.
+     */
+    public boolean add(StationStatusMsgDTO status) {
+        WeatherDTO weather = status.getWeather();
+        if (weather == null) {
+            return true;
+        }
+
+        StationWindows station = stations.computeIfAbsent(status.getStationId(), stationId -> new StationWindows());
+        long timestamp = status.getStatusTimestamp();
+        boolean accepted = true;
+
+        for (RollupResolution resolution : RESOLUTIONS) {
+            long windowStart = resolution.windowStart(timestamp);
+
+            if (isClosed(windowStart + resolution.getMillis(), station.watermark)) {
+                accepted = false;
+                continue;
+            }
+            window(station, status.getStationId(), resolution, windowStart)
+                    .add(weather.getTemperature(), weather.getHumidity());
+        }
+
+        if (timestamp > station.watermark) {
+            station.watermark = timestamp;
+            closeWindows(station, timestamp);
+        }
+        return accepted;
+    }
+
+    private WeatherRollup window(StationWindows station, long stationId, RollupResolution resolution, long windowStart) {
+        for (WeatherRollup window : station.open) {
+            if (window.getResolution() == resolution && window.getWindowStart() == windowStart) {
+                return window;
+            }
+        }
+
+        WeatherRollup window = new WeatherRollup(stationId, resolution, windowStart);
+        station.open.add(window);
+        return window;
+    }
+
+    private boolean isClosed(long windowEnd, long now) {
+        return now != Long.MIN_VALUE && windowEnd + gracePeriodMillis <= now;
+    }
+
+    private void closeWindows(StationWindows station, long now) {
+        Iterator<WeatherRollup> iterator = station.open.iterator();
+
+        while (iterator.hasNext()) {
+            WeatherRollup window = iterator.next();
+            if (isClosed(window.getWindowEnd(), now)) {
+                iterator.remove();
+                closed.add(window);
+            }
+        }
+    }
+
+    /**
+     * Closes the windows that ended a grace period before {@code nowMillis} by the wall clock, and forgets the stations
+     * left without an open window.
+     */
+    public void closeIdle(long nowMillis) {
+        Iterator<StationWindows> iterator = stations.values().iterator();
+
+        while (iterator.hasNext()) {
+            StationWindows station = iterator.next();
+            closeWindows(station, nowMillis);
+            if (station.open.isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Closes every open window, complete or not.
+     */
+    public void closeAll() {
+        for (StationWindows station : stations.values()) {
+            closed.addAll(station.open);
+            station.open.clear();
+        }
+    }
+
+    /**
+     * Returns the windows closed since the last call.
+     */
+    public List<WeatherRollup> drainClosed() {
+        if (closed.isEmpty()) {
+            return List.of();
+        }
+
+        List<WeatherRollup> drained = closed;
+        closed = new ArrayList<>();
+        return drained;
+    }
+}
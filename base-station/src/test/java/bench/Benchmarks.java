@@ -0,0 +1,92 @@
+package bench;
+
+import dao.Impl.BitcaskDAOImpl;
+import dto.StationStatusMsgDTO;
+import dto.WeatherDTO;
+import mapper.StationStatusCodec;
+import org.slf4j.LoggerFactory;
+import utils.BitcaskOptions;
+import utils.Impl.OpenAddressingKeyDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Helpers shared by the benchmark drivers in this package. The drivers are plain {@code main} classes rather than
+ * tests, so surefire leaves them alone; run one after {@code mvn test-compile} with
+ * {@code mvn exec:java -Dexec.classpathScope=test -Dexec.mainClass=bench.<Name> -Dexec.args="..."}.
+ */
+final class Benchmarks {
+
+    static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
+    // 2023-10-01T00:00:00Z, the first day of the synthetic archives.
+    static final long FIRST_DAY = 1_696_118_400_000L;
+    static final String[] BATTERY_STATUSES = {"low", "medium", "high"};
+
+    private Benchmarks() {
+    }
+
+    static BitcaskDAOImpl openBitcask(BitcaskOptions options) {
+        return new BitcaskDAOImpl(LoggerFactory.getLogger(BitcaskDAOImpl.class), options, OpenAddressingKeyDir::new);
+    }
+
+    /* Options with the merges held off, so they do not compete with what is measured */
+    static BitcaskOptions.BitcaskOptionsBuilder bitcaskOptions(Path directory) {
+        return BitcaskOptions.builder()
+                .directory(directory.toString() + "/")
+                .mergeDelayMillis(DAY_MILLIS);
+    }
+
+    static Path createDirectory(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix);
+    }
+
+    static void deleteDirectory(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> {
+                try {
+                    Files.delete(file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
+    static long directorySize(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+        }
+    }
+
+    /* A station status as the consumer stores it in bitcask */
+    static byte[] encodedStatus(long stationId, long sequenceNumber) {
+        return StationStatusCodec.encode(status(stationId, sequenceNumber, FIRST_DAY + sequenceNumber * 1000));
+    }
+
+    static StationStatusMsgDTO status(long stationId, long sequenceNumber, long statusTimestamp) {
+        return new StationStatusMsgDTO(stationId, sequenceNumber,
+                BATTERY_STATUSES[(int) (sequenceNumber % BATTERY_STATUSES.length)], statusTimestamp,
+                new WeatherDTO(40, 70, 12));
+    }
+
+    /* Sorts the latencies in place */
+    static String percentiles(long[] nanos, int count) {
+        Arrays.sort(nanos, 0, count);
+        return String.format("p50=%.1f us p99=%.1f us p99.9=%.1f us max=%.1f us",
+                nanos[count / 2] / 1000.0, nanos[(int) (count * 0.99)] / 1000.0,
+                nanos[(int) (count * 0.999)] / 1000.0, nanos[count - 1] / 1000.0);
+    }
+
+    static double perSecond(long operations, long nanos) {
+        return operations * 1e9 / nanos;
+    }
+}
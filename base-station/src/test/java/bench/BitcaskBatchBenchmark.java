@@ -0,0 +1,65 @@
+package bench;
+
+import dao.Impl.BitcaskDAOImpl;
+
+import java.nio.file.Path;
+
+/**
+ * Throughput of handing Kafka polls of 1, 100 and 10000 statuses to bitcask one {@code write} per record versus one
+ * {@code writeBatch} per poll. Stations report round-robin, so a poll larger than the number of stations repeats keys
+ * that the batch writes only once.
+ * <p>
+ * Arguments: records per run (default 2000000), distinct stations (default 1000).
+ */
+public class BitcaskBatchBenchmark {
+
+    private static final int[] POLL_SIZES = {1, 100, 10_000};
+
+    public static void main(String[] args) throws Exception {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int stations = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+
+        for (int pollSize : POLL_SIZES) {
+            for (boolean batched : new boolean[]{false, true}) {
+                run(pollSize, batched, records, stations);
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void run(int pollSize, boolean batched, int records, int stations) throws Exception {
+        Path directory = Benchmarks.createDirectory("bitcask-batch");
+        try (BitcaskDAOImpl bitcask = Benchmarks.openBitcask(Benchmarks.bitcaskOptions(directory).build())) {
+            byte[][] values = new byte[stations][];
+            for (int station = 0; station < stations; station++) {
+                values[station] = Benchmarks.encodedStatus(station, 0);
+            }
+
+            long start = System.nanoTime();
+            long key = 0;
+            for (int written = 0; written < records; written += pollSize) {
+                long[] keys = new long[pollSize];
+                byte[][] pollValues = new byte[pollSize][];
+                for (int i = 0; i < pollSize; i++) {
+                    keys[i] = key++ % stations;
+                    pollValues[i] = values[(int) keys[i]];
+                }
+
+                if (batched) {
+                    bitcask.writeBatch(keys, pollValues);
+                } else {
+                    for (int i = 0; i < pollSize; i++) {
+                        bitcask.write(keys[i], pollValues[i]);
+                    }
+                }
+            }
+            bitcask.writeDurably(0, values[0]).join();
+            long nanos = System.nanoTime() - start;
+
+            System.out.printf("poll=%6d %-12s %10.0f records/s%n", pollSize, batched ? "writeBatch" : "write",
+                    Benchmarks.perSecond(records, nanos));
+        } finally {
+            Benchmarks.deleteDirectory(directory);
+        }
+    }
+}
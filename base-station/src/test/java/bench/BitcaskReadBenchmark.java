@@ -0,0 +1,67 @@
+package bench;
+
+import dao.Impl.BitcaskDAOImpl;
+import utils.BitcaskOptions;
+
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Latency of random point reads, served from mapped immutable data files. The store is filled with one status per
+ * station across small data files, so nearly every read lands in an immutable file; the value cache is off to measure
+ * the mapped read path, and on in a second run for comparison.
+ * <p>
+ * Arguments: stations (default 100000), reads (default 1000000).
+ */
+public class BitcaskReadBenchmark {
+
+    private static final long FILE_SIZE = 4L << 20;
+    private static final int WARMUP_READS = 200_000;
+
+    public static void main(String[] args) throws Exception {
+        int stations = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int reads = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+
+        Path directory = Benchmarks.createDirectory("bitcask-read");
+        try {
+            BitcaskOptions.BitcaskOptionsBuilder options = Benchmarks.bitcaskOptions(directory).maxFileSize(FILE_SIZE);
+            try (BitcaskDAOImpl bitcask = Benchmarks.openBitcask(options.build())) {
+                for (int station = 0; station < stations - 1; station++) {
+                    bitcask.write(station, Benchmarks.encodedStatus(station, 0));
+                }
+                bitcask.writeDurably(stations - 1, Benchmarks.encodedStatus(stations - 1, 0)).join();
+            }
+
+            run("mapped files", options.valueCacheEntries(0).build(), stations, reads);
+            run("value cache", options.valueCacheEntries(stations).valueCacheBytes(256L << 20).build(), stations,
+                    reads);
+        } finally {
+            Benchmarks.deleteDirectory(directory);
+        }
+        System.exit(0);
+    }
+
+    private static void run(String name, BitcaskOptions options, int stations, int reads) {
+        try (BitcaskDAOImpl bitcask = Benchmarks.openBitcask(options)) {
+            Random random = new Random(7);
+            for (int i = 0; i < WARMUP_READS; i++) {
+                bitcask.read(random.nextInt(stations));
+            }
+
+            long[] latencies = new long[reads];
+            long start = System.nanoTime();
+            for (int i = 0; i < reads; i++) {
+                long readStart = System.nanoTime();
+                byte[] value = bitcask.read(random.nextInt(stations));
+                latencies[i] = System.nanoTime() - readStart;
+                if (value == null) {
+                    throw new IllegalStateException("A station written before the run is missing");
+                }
+            }
+            long nanos = System.nanoTime() - start;
+
+            System.out.printf("%-12s %10.0f reads/s  %s%n", name, Benchmarks.perSecond(reads, nanos),
+                    Benchmarks.percentiles(latencies, reads));
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package bench;
+
+import dao.Impl.BitcaskDAOImpl;
+import utils.BitcaskOptions;
+import utils.SyncPolicy;
+
+import java.nio.file.Path;
+
+/**
+ * Write throughput of every sync policy, and how the data file size trades write throughput for recovery time.
+ * Each run writes station statuses one {@code write} at a time into a fresh directory, waits until the last one is
+ * forced, then reopens the directory to time the recovery. {@code RECORD} forces every record, so it writes far fewer.
+ * <p>
+ * Arguments: records per run (default 1000000), distinct stations (default 10000).
+ */
+public class BitcaskWriteBenchmark {
+
+    private static final long[] FILE_SIZES = {1L << 20, 16L << 20, 64L << 20, 256L << 20};
+    private static final int RECORD_POLICY_RECORDS = 5_000;
+
+    public static void main(String[] args) throws Exception {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int stations = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+
+        for (SyncPolicy policy : SyncPolicy.values()) {
+            int policyRecords = policy == SyncPolicy.RECORD ? RECORD_POLICY_RECORDS : records;
+            for (long fileSize : FILE_SIZES) {
+                run(policy, fileSize, policyRecords, stations);
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void run(SyncPolicy policy, long fileSize, int records, int stations) throws Exception {
+        Path directory = Benchmarks.createDirectory("bitcask-write");
+        try {
+            BitcaskOptions options = Benchmarks.bitcaskOptions(directory)
+                    .syncPolicy(policy)
+                    .maxFileSize(fileSize)
+                    .build();
+            byte[][] values = new byte[stations][];
+            for (int station = 0; station < stations; station++) {
+                values[station] = Benchmarks.encodedStatus(station, 0);
+            }
+
+            long start = System.nanoTime();
+            try (BitcaskDAOImpl bitcask = Benchmarks.openBitcask(options)) {
+                for (int i = 0; i < records - 1; i++) {
+                    bitcask.write(i % stations, values[i % stations]);
+                }
+                bitcask.writeDurably((records - 1) % stations, values[(records - 1) % stations]).join();
+            }
+            long writeNanos = System.nanoTime() - start;
+            long bytes = Benchmarks.directorySize(directory);
+
+            start = System.nanoTime();
+            try (BitcaskDAOImpl bitcask = Benchmarks.openBitcask(options)) {
+                long recoveryNanos = System.nanoTime() - start;
+                if (bitcask.read(0) == null) {
+                    throw new IllegalStateException("Station 0 was not recovered");
+                }
+                System.out.printf("policy=%-8s fileSize=%4d MiB records=%8d  %10.0f records/s  %6d MiB on disk"
+                                + "  recovery %6d ms%n", policy, fileSize >> 20, records,
+                        Benchmarks.perSecond(records, writeNanos), bytes >> 20, recoveryNanos / 1_000_000);
+            }
+        } finally {
+            Benchmarks.deleteDirectory(directory);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package bench;
+
+import dto.StationStatusMsgDTO;
+import dto.WeatherDTO;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.avro.AvroParquetReader;
+import org.apache.parquet.filter2.compat.FilterCompat;
+import org.apache.parquet.filter2.predicate.FilterApi;
+import org.apache.parquet.filter2.predicate.Operators;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import utils.ParquetOptions;
+import utils.StationStatusWriteSupport;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+/**
+ * Write CPU, file size and scan time of each compression codec on a synthetic day of the archive: one file per
+ * station with a reading every second, sorted by timestamp, whose weather drifts the way real readings do. The scans
+ * read every row, and then one hour through a timestamp filter that the row group and page statistics prune. Page
+ * size, row group size and dictionary encoding come from {@link ParquetOptions#fromEnvironment()}.
+ * <p>
+ * Arguments: the codecs to compare (default UNCOMPRESSED SNAPPY LZ4 GZIP ZSTD).
+ */
+public class ParquetCodecBenchmark {
+
+    private static final String STATUS_SCHEMA_LOCATION = "src/main/resources/archiving_files/avroSchema.avsc";
+    private static final int STATIONS = 10;
+    private static final int ROWS_PER_STATION = 24 * 60 * 60;
+    private static final long HOUR_MILLIS = 60 * 60 * 1000;
+
+    public static void main(String[] args) throws Exception {
+        String[] codecs = args.length > 0 ? args : new String[]{"UNCOMPRESSED", "SNAPPY", "LZ4", "GZIP", "ZSTD"};
+        Schema schema = new Schema.Parser().parse(new File(STATUS_SCHEMA_LOCATION));
+        ParquetOptions defaults = ParquetOptions.fromEnvironment();
+
+        java.nio.file.Path directory = Benchmarks.createDirectory("parquet-codecs");
+        try {
+            // The first pass warms up the JIT for every codec and is not reported.
+            for (int pass = 0; pass < 2; pass++) {
+                for (String codec : codecs) {
+                    ParquetOptions options = ParquetOptions.builder()
+                            .compressionCodec(CompressionCodecName.valueOf(codec))
+                            .rowGroupSize(defaults.getRowGroupSize())
+                            .pageSize(defaults.getPageSize())
+                            .dictionaryEncoding(defaults.isDictionaryEncoding())
+                            .build();
+                    run(schema, options, directory.resolve(codec + "-" + pass), pass > 0);
+                }
+            }
+        } finally {
+            Benchmarks.deleteDirectory(directory);
+        }
+    }
+
+    private static void run(Schema schema, ParquetOptions options, java.nio.file.Path directory, boolean report)
+            throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        long cpu = threads.getCurrentThreadCpuTime();
+        for (int station = 0; station < STATIONS; station++) {
+            writeDay(schema, options, file(directory, station), station);
+        }
+        long writeCpuNanos = threads.getCurrentThreadCpuTime() - cpu;
+        long bytes = Benchmarks.directorySize(directory);
+
+        long start = System.nanoTime();
+        long rows = scan(directory, FilterCompat.NOOP);
+        long scanNanos = System.nanoTime() - start;
+
+        Operators.LongColumn timestamp = FilterApi.longColumn("statusTimestamp");
+        long from = Benchmarks.FIRST_DAY + 12 * HOUR_MILLIS;
+        FilterCompat.Filter hour = FilterCompat.get(FilterApi.and(
+                FilterApi.gtEq(timestamp, from), FilterApi.lt(timestamp, from + HOUR_MILLIS)));
+        start = System.nanoTime();
+        long hourRows = scan(directory, hour);
+        long hourScanNanos = System.nanoTime() - start;
+
+        if (report) {
+            System.out.printf("%-12s write cpu %6d ms  size %7d KB  full scan %5d ms (%d rows)"
+                            + "  one hour %4d ms (%d rows)%n", options.getCompressionCodec(),
+                    writeCpuNanos / 1_000_000, bytes / 1024, scanNanos / 1_000_000, rows,
+                    hourScanNanos / 1_000_000, hourRows);
+        }
+    }
+
+    private static void writeDay(Schema schema, ParquetOptions options, Path path, int station) throws Exception {
+        Random random = new Random(station);
+        StationStatusMsgDTO status = new StationStatusMsgDTO(station, 0, "low", 0, new WeatherDTO(50, 70, 10));
+
+        try (ParquetWriter<StationStatusMsgDTO> writer = StationStatusWriteSupport.builder(path, schema)
+                .withConf(new Configuration())
+                .withCompressionCodec(options.getCompressionCodec())
+                .withRowGroupSize(options.getRowGroupSize())
+                .withPageSize(options.getPageSize())
+                .withDictionaryEncoding(options.isDictionaryEncoding())
+                .build()) {
+            for (int i = 0; i < ROWS_PER_STATION; i++) {
+                status.setSequenceNumber(i);
+                status.setStatusTimestamp(Benchmarks.FIRST_DAY + i * 1000L);
+                status.setBatteryStatus(Benchmarks.BATTERY_STATUSES[(int) (i * 1000L / HOUR_MILLIS) % 3]);
+                WeatherDTO weather = status.getWeather();
+                weather.setHumidity(Math.max(0, Math.min(100, weather.getHumidity() + random.nextInt(3) - 1)));
+                weather.setTemperature(weather.getTemperature() + random.nextInt(3) - 1);
+                weather.setWindSpeed(Math.max(0, weather.getWindSpeed() + random.nextInt(3) - 1));
+                writer.write(status);
+            }
+        }
+    }
+
+    private static long scan(java.nio.file.Path directory, FilterCompat.Filter filter) throws Exception {
+        long rows = 0;
+
+        for (int station = 0; station < STATIONS; station++) {
+            try (ParquetReader<GenericRecord> reader = AvroParquetReader
+                    .<GenericRecord>builder(file(directory, station))
+                    .withDataModel(GenericData.get())
+                    .withFilter(filter)
+                    .build()) {
+                while (reader.read() != null) {
+                    rows++;
+                }
+            }
+        }
+        return rows;
+    }
+
+    private static Path file(java.nio.file.Path directory, int station) {
+        return new Path(directory.resolve("station=" + station + ".parquet").toUri());
+    }
+}
@@ -0,0 +1,135 @@
+package bench;
+
+import dao.Impl.ParquetDAOImpl;
+import dao.Impl.ParquetQueryDAOImpl;
+import dto.StationStatusMsgDTO;
+import dto.WeatherAggregateDTO;
+import dto.WeatherDTO;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.avro.AvroParquetReader;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.slf4j.LoggerFactory;
+import service.Impl.ElasticsearchServiceImpl;
+import utils.ParquetOptions;
+import utils.StationStatusWriteSupport;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.Random;
+
+/**
+ * Aggregates the temperature of one station over a time range with {@link ParquetQueryDAOImpl}, which prunes by
+ * partition and row group statistics and reads two columns, against a full scan that reads every row of every file
+ * of the synthetic stations through Avro and filters in memory, the way the indexer reads the archive. Both must find
+ * the same readings.
+ * <p>
+ * The archive directory is fixed, so a month of readings every ten seconds is written under
+ * {@code /mnt/parquet/station=<id>} for station ids from {@link #FIRST_STATION}, far above real ones, and removed
+ * afterwards. Arguments: hours to aggregate (default 24), stations (default 10).
+ */
+public class ParquetQueryBenchmark {
+
+    private static final String STATUS_SCHEMA_LOCATION = "src/main/resources/archiving_files/avroSchema.avsc";
+    private static final long FIRST_STATION = 900_000;
+    private static final int DAYS = 30;
+    private static final int READINGS_PER_DAY = 8_640;
+    private static final long READING_INTERVAL_MILLIS = 10 * 1000;
+    private static final long HOUR_MILLIS = 60 * 60 * 1000;
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) throws Exception {
+        long hours = args.length > 0 ? Long.parseLong(args[0]) : 24;
+        int stations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        try {
+            Schema schema = new Schema.Parser().parse(new File(STATUS_SCHEMA_LOCATION));
+            for (int station = 0; station < stations; station++) {
+                writeMonth(schema, FIRST_STATION + station);
+            }
+
+            ParquetQueryDAOImpl queries = new ParquetQueryDAOImpl(LoggerFactory.getLogger(ParquetQueryDAOImpl.class));
+            long stationId = FIRST_STATION + stations / 2;
+            long from = Benchmarks.FIRST_DAY + 10 * Benchmarks.DAY_MILLIS + 6 * HOUR_MILLIS;
+            long to = from + hours * HOUR_MILLIS;
+
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                WeatherAggregateDTO aggregate = queries.aggregateWeather(stationId, from, to);
+                long queryNanos = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                long readings = fullScan(stations, stationId, from, to);
+                long scanNanos = System.nanoTime() - start;
+
+                System.out.printf("query %5d ms  full scan %6d ms  readings %d and %d  %s%n",
+                        queryNanos / 1_000_000, scanNanos / 1_000_000, aggregate.getReadings(), readings, aggregate);
+                if (aggregate.getReadings() != readings) {
+                    throw new IllegalStateException("The query and the full scan disagree");
+                }
+            }
+        } finally {
+            for (int station = 0; station < stations; station++) {
+                Benchmarks.deleteDirectory(
+                        Paths.get(ParquetDAOImpl.ARCHIVE_DIRECTORY, "station=" + (FIRST_STATION + station)));
+            }
+        }
+    }
+
+    private static void writeMonth(Schema schema, long stationId) throws Exception {
+        ParquetOptions options = ParquetOptions.fromEnvironment();
+        Random random = new Random(stationId);
+        StationStatusMsgDTO status = new StationStatusMsgDTO(stationId, 0, "low", 0, new WeatherDTO(50, 70, 10));
+        long sequenceNumber = 0;
+
+        for (int day = 0; day < DAYS; day++) {
+            long dayStart = Benchmarks.FIRST_DAY + day * Benchmarks.DAY_MILLIS;
+            String date = LocalDate.ofEpochDay(dayStart / Benchmarks.DAY_MILLIS).toString();
+            Path path = new Path(ParquetDAOImpl.partitionDirectory(stationId, date), "benchmark.parquet");
+
+            try (ParquetWriter<StationStatusMsgDTO> writer = StationStatusWriteSupport.builder(path, schema)
+                    .withConf(new Configuration())
+                    .withCompressionCodec(options.getCompressionCodec())
+                    .withRowGroupSize(options.getRowGroupSize())
+                    .withPageSize(options.getPageSize())
+                    .build()) {
+                for (int i = 0; i < READINGS_PER_DAY; i++) {
+                    status.setSequenceNumber(sequenceNumber);
+                    status.setStatusTimestamp(dayStart + i * READING_INTERVAL_MILLIS);
+                    status.setBatteryStatus(Benchmarks.BATTERY_STATUSES[(int) (sequenceNumber++ % 3)]);
+                    WeatherDTO weather = status.getWeather();
+                    weather.setHumidity(Math.max(0, Math.min(100, weather.getHumidity() + random.nextInt(3) - 1)));
+                    weather.setTemperature(weather.getTemperature() + random.nextInt(3) - 1);
+                    writer.write(status);
+                }
+            }
+        }
+    }
+
+    private static long fullScan(int stations, long stationId, long from, long to) throws Exception {
+        long readings = 0;
+
+        for (int station = 0; station < stations; station++) {
+            String directory = ParquetDAOImpl.ARCHIVE_DIRECTORY + "station=" + (FIRST_STATION + station);
+            for (java.nio.file.Path file : ElasticsearchServiceImpl.findParquetFiles(directory)) {
+                try (ParquetReader<GenericRecord> reader = AvroParquetReader
+                        .<GenericRecord>builder(new Path(file.toUri()))
+                        .withDataModel(GenericData.get())
+                        .build()) {
+                    for (GenericRecord row = reader.read(); row != null; row = reader.read()) {
+                        long timestamp = (Long) row.get("statusTimestamp");
+                        if ((Long) row.get("stationId") == stationId && timestamp >= from && timestamp < to) {
+                            readings++;
+                        }
+                    }
+                }
+            }
+        }
+        return readings;
+    }
+}
@@ -0,0 +1,157 @@
+package bench;
+
+import com.sun.management.ThreadMXBean;
+import dto.StationStatusMsgDTO;
+import dto.WeatherDTO;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.avro.AvroParquetReader;
+import org.apache.parquet.avro.AvroParquetWriter;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.ParquetWriter;
+import utils.ParquetOptions;
+import utils.StationStatusBuffer;
+import utils.StationStatusWriteSupport;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+
+/**
+ * Time and allocation per row of writing station statuses to Parquet through {@link StationStatusWriteSupport}, from
+ * the buffered columns the flush thread holds, against the reflective path it replaced: a {@link GenericData.Record}
+ * built field by field through reflection for every message and written by {@link AvroParquetWriter}. Both files are
+ * read back and compared row by row.
+ * <p>
+ * Arguments: rows per round (default 200000), rounds (default 5; the first one warms up).
+ */
+public class ParquetRowWriteBenchmark {
+
+    private static final String STATUS_SCHEMA_LOCATION = "src/main/resources/archiving_files/avroSchema.avsc";
+    private static final String WEATHER_SCHEMA_LOCATION = "src/main/resources/archiving_files/innerAvroSchema.avsc";
+
+    private static Schema statusSchema;
+    private static Schema weatherSchema;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        statusSchema = new Schema.Parser().parse(new File(STATUS_SCHEMA_LOCATION));
+        weatherSchema = new Schema.Parser().parse(new File(WEATHER_SCHEMA_LOCATION));
+        ParquetOptions options = ParquetOptions.builder().build();
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().threadId();
+
+        java.nio.file.Path directory = Benchmarks.createDirectory("parquet-rows");
+        try {
+            for (int round = 0; round < rounds; round++) {
+                Path reflectivePath = new Path(directory.resolve("reflective-" + round + ".parquet").toUri());
+                Path writeSupportPath = new Path(directory.resolve("write-support-" + round + ".parquet").toUri());
+                StationStatusMsgDTO status = new StationStatusMsgDTO(3, 0, "low", 0, new WeatherDTO());
+
+                long bytes = threads.getThreadAllocatedBytes(thread);
+                long start = System.nanoTime();
+                try (ParquetWriter<GenericData.Record> writer = AvroParquetWriter.<GenericData.Record>builder(
+                                reflectivePath)
+                        .withSchema(statusSchema)
+                        .withConf(new Configuration())
+                        .withCompressionCodec(options.getCompressionCodec())
+                        .build()) {
+                    for (int i = 0; i < rows; i++) {
+                        writer.write(reflectiveRecord(next(status, i)));
+                    }
+                }
+                long reflectiveNanos = System.nanoTime() - start;
+                long reflectiveBytes = threads.getThreadAllocatedBytes(thread) - bytes;
+
+                bytes = threads.getThreadAllocatedBytes(thread);
+                start = System.nanoTime();
+                StationStatusBuffer buffer = new StationStatusBuffer();
+                for (int i = 0; i < rows; i++) {
+                    buffer.add(next(status, i));
+                }
+                StationStatusMsgDTO flushed = new StationStatusMsgDTO();
+                try (ParquetWriter<StationStatusMsgDTO> writer = StationStatusWriteSupport
+                        .builder(writeSupportPath, statusSchema)
+                        .withConf(new Configuration())
+                        .withCompressionCodec(options.getCompressionCodec())
+                        .build()) {
+                    for (int i = 0; i < buffer.size(); i++) {
+                        buffer.copyTo(i, flushed);
+                        writer.write(flushed);
+                    }
+                }
+                long writeSupportNanos = System.nanoTime() - start;
+                long writeSupportBytes = threads.getThreadAllocatedBytes(thread) - bytes;
+
+                if (round > 0) {
+                    System.out.printf("reflective %6.0f ns/row %5d B/row | write support %6.0f ns/row %5d B/row%n",
+                            (double) reflectiveNanos / rows, reflectiveBytes / rows,
+                            (double) writeSupportNanos / rows, writeSupportBytes / rows);
+                }
+                if (round == rounds - 1) {
+                    compare(reflectivePath, writeSupportPath);
+                }
+            }
+        } finally {
+            Benchmarks.deleteDirectory(directory);
+        }
+    }
+
+    private static StationStatusMsgDTO next(StationStatusMsgDTO status, int i) {
+        status.setSequenceNumber(i);
+        status.setStatusTimestamp(Benchmarks.FIRST_DAY + i * 1000L);
+        status.setBatteryStatus(Benchmarks.BATTERY_STATUSES[i % Benchmarks.BATTERY_STATUSES.length]);
+        status.getWeather().setHumidity(i % 100);
+        status.getWeather().setTemperature(60 + i % 40);
+        status.getWeather().setWindSpeed(i % 30);
+        return status;
+    }
+
+    /* The record building ParquetDAOImpl did before StationStatusWriteSupport */
+    private static GenericData.Record reflectiveRecord(StationStatusMsgDTO dto) throws IllegalAccessException {
+        GenericData.Record record = new GenericData.Record(statusSchema);
+        for (Field field : dto.getClass().getDeclaredFields()) {
+            field.setAccessible(true);
+            Object value = field.get(dto);
+            if (field.getName().equals("weather")) {
+                GenericData.Record weatherRecord = new GenericData.Record(weatherSchema);
+                WeatherDTO weatherDTO = (WeatherDTO) value;
+                weatherRecord.put("humidity", weatherDTO.getHumidity());
+                weatherRecord.put("temperature", weatherDTO.getTemperature());
+                weatherRecord.put("windSpeed", weatherDTO.getWindSpeed());
+                record.put("weather", weatherRecord);
+            } else {
+                record.put(field.getName(), value);
+            }
+        }
+        return record;
+    }
+
+    private static void compare(Path expectedPath, Path actualPath) throws Exception {
+        try (ParquetReader<GenericRecord> expected = reader(expectedPath);
+             ParquetReader<GenericRecord> actual = reader(actualPath)) {
+            long rows = 0;
+            for (GenericRecord row = expected.read(); row != null; row = expected.read(), rows++) {
+                GenericRecord other = actual.read();
+                if (other == null || !row.toString().equals(other.toString())) {
+                    throw new IllegalStateException("Row " + rows + " differs: " + row + " and " + other);
+                }
+            }
+            if (actual.read() != null) {
+                throw new IllegalStateException("The write support wrote more than " + rows + " rows");
+            }
+            System.out.printf("both files hold the same %d rows; %d and %d bytes%n", rows,
+                    Files.size(java.nio.file.Path.of(expectedPath.toUri())),
+                    Files.size(java.nio.file.Path.of(actualPath.toUri())));
+        }
+    }
+
+    private static ParquetReader<GenericRecord> reader(Path path) throws Exception {
+        return AvroParquetReader.<GenericRecord>builder(path).withDataModel(GenericData.get()).build();
+    }
+}
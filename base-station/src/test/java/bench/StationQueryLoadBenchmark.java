@@ -0,0 +1,128 @@
+package bench;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.name.Names;
+import dao.BitcaskDAO;
+import dao.Impl.BitcaskDAOImpl;
+import dao.Impl.ParquetQueryDAOImpl;
+import dao.ParquetQueryDAO;
+import mapper.Mapper;
+import mapper.MapperImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import service.Impl.StationQueryServiceImpl;
+import utils.StationQueryOptions;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load test of {@code GET /stations/{id}} at a fixed rate against a populated store. Requests for random stations
+ * are scheduled evenly and taken in turn by a fixed set of clients, each with one keep-alive connection. A latency is
+ * counted from the moment its request was due rather than sent, so a stalled server shows up in the tail instead of
+ * slowing the load down. The load generator shares the host with the server, so measure the target rate on a host
+ * with cores to spare for both.
+ * <p>
+ * Arguments: requests per second (default 10000), seconds (default 10), stations (default 10000), connections
+ * (default 64), port (default 18080).
+ */
+public class StationQueryLoadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rate = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int stations = args.length > 2 ? Integer.parseInt(args[2]) : 10_000;
+        int connections = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+        int port = args.length > 4 ? Integer.parseInt(args[4]) : 18_080;
+
+        Path directory = Benchmarks.createDirectory("station-query");
+        try (BitcaskDAOImpl bitcask = Benchmarks.openBitcask(Benchmarks.bitcaskOptions(directory).build())) {
+            for (int station = 0; station < stations - 1; station++) {
+                bitcask.write(station, Benchmarks.encodedStatus(station, 0));
+            }
+            bitcask.writeDurably(stations - 1, Benchmarks.encodedStatus(stations - 1, 0)).join();
+
+            startServer(bitcask, port);
+            HttpClient client = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .build();
+            String baseUri = "http://localhost:" + port + "/stations/";
+
+            run(client, baseUri, Math.min(rate, 1_000), 2, stations, connections);
+            run(client, baseUri, rate, seconds, stations, connections);
+        } finally {
+            Benchmarks.deleteDirectory(directory);
+        }
+        System.exit(0);
+    }
+
+    private static void startServer(BitcaskDAO bitcask, int port) {
+        Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(Logger.class)
+                        .annotatedWith(Names.named("StationQueryLogger"))
+                        .toInstance(LoggerFactory.getLogger(StationQueryServiceImpl.class));
+                bind(Logger.class)
+                        .annotatedWith(Names.named("ParquetQueryLogger"))
+                        .toInstance(LoggerFactory.getLogger(ParquetQueryDAOImpl.class));
+                bind(BitcaskDAO.class).toInstance(bitcask);
+                bind(ParquetQueryDAO.class).to(ParquetQueryDAOImpl.class);
+                bind(Mapper.class).to(MapperImpl.class);
+                bind(StationQueryOptions.class).toInstance(StationQueryOptions.builder().port(port).build());
+            }
+        }).getInstance(StationQueryServiceImpl.class).start();
+    }
+
+    private static void run(HttpClient client, String baseUri, int rate, int seconds, int stations, int connections)
+            throws InterruptedException {
+        int requests = rate * seconds;
+        long[] latencies = new long[requests];
+        AtomicInteger nextRequest = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+
+        long start = System.nanoTime();
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int connection = 0; connection < connections; connection++) {
+                clients.submit(() -> {
+                    Random random = new Random();
+                    for (int request = nextRequest.getAndIncrement(); request < requests;
+                         request = nextRequest.getAndIncrement()) {
+                        long due = start + request * 1_000_000_000L / rate;
+                        long wait = due - System.nanoTime();
+                        if (wait > 0) {
+                            LockSupport.parkNanos(wait);
+                        }
+
+                        URI uri = URI.create(baseUri + random.nextInt(stations));
+                        try {
+                            HttpResponse<byte[]> response = client.send(HttpRequest.newBuilder(uri).build(),
+                                    HttpResponse.BodyHandlers.ofByteArray());
+                            if (response.statusCode() != 200) {
+                                errors.incrementAndGet();
+                            }
+                        } catch (IOException e) {
+                            errors.incrementAndGet();
+                        }
+                        latencies[request] = System.nanoTime() - due;
+                    }
+                    return null;
+                });
+            }
+        }
+        long nanos = System.nanoTime() - start;
+
+        System.out.printf("target=%6d req/s achieved=%8.0f req/s errors=%d  %s%n", rate,
+                Benchmarks.perSecond(requests, nanos), errors.get(), Benchmarks.percentiles(latencies, requests));
+    }
+}
@@ -0,0 +1,385 @@
+package dao.Impl;
+
+import dao.BitcaskDAO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.LoggerFactory;
+import utils.BitcaskOptions;
+import utils.BitcaskRecord;
+import utils.Impl.OpenAddressingKeyDir;
+import utils.KeyDirValue;
+import utils.SyncPolicy;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Corrupts data and hint files on disk the way a crash or a bad disk would, then checks what a restarted Bitcask
+ * recovers. Every instance is closed before the next one opens the directory. Most tests write {@link #RECORDS}
+ * records with fixed-length values into a single data file, so record {@code i} starts at
+ * {@code FILE_HEADER_SIZE + i * RECORD_SIZE}.
+ */
+class BitcaskRecoveryTest {
+
+    private static final int RECORDS = 5;
+    private static final int VALUE_SIZE = 100;
+    private static final int RECORD_SIZE = BitcaskRecord.HEADER_SIZE + VALUE_SIZE;
+    private static final int HINT_ENTRY_SIZE = Long.BYTES + KeyDirValue.SIZE;
+
+    @TempDir
+    Path tempDir;
+
+    private Path directory;
+
+    @BeforeEach
+    void setUp() {
+        directory = tempDir.resolve("bitcask");
+    }
+
+    @Test
+    void tornTailIsTruncatedAndEarlierRecordsSurvive() throws IOException {
+        Path dataFile = writeRecords();
+        truncate(dataFile, Files.size(dataFile) - 10);
+
+        try (BitcaskDAO bitcask = open()) {
+            for (int i = 0; i < RECORDS - 1; i++) {
+                assertArrayEquals(value(i), bitcask.read(i));
+            }
+            assertNull(bitcask.read(RECORDS - 1));
+            assertEquals(recordOffset(RECORDS - 1), Files.size(dataFile));
+
+            bitcask.writeDurably(RECORDS, value(RECORDS)).join();
+        }
+        try (BitcaskDAO bitcask = open()) {
+            for (int i = 0; i < RECORDS - 1; i++) {
+                assertArrayEquals(value(i), bitcask.read(i));
+            }
+            assertArrayEquals(value(RECORDS), bitcask.read(RECORDS));
+        }
+    }
+
+    @Test
+    void bitFlipSkipsOnlyTheCorruptedRecord() throws IOException {
+        Path dataFile = writeRecords();
+        flipBit(dataFile, recordOffset(2) + BitcaskRecord.HEADER_SIZE + VALUE_SIZE / 2);
+
+        try (BitcaskDAO bitcask = open()) {
+            for (int i = 0; i < RECORDS; i++) {
+                if (i == 2) {
+                    assertNull(bitcask.read(i));
+                } else {
+                    assertArrayEquals(value(i), bitcask.read(i));
+                }
+            }
+            assertEquals(BitcaskRecord.FILE_HEADER_SIZE + (long) RECORDS * RECORD_SIZE, Files.size(dataFile));
+        }
+    }
+
+    @Test
+    void bitFlipInTheKeyNeverReturnsTheValueUnderAnotherKey() throws IOException {
+        Path dataFile = writeRecords();
+        flipBit(dataFile, recordOffset(1) + Integer.BYTES + 1 + Long.BYTES + Short.BYTES);
+
+        try (BitcaskDAO bitcask = open()) {
+            assertArrayEquals(value(0), bitcask.read(0));
+            assertNull(bitcask.read(1));
+            for (int i = 2; i < RECORDS; i++) {
+                assertArrayEquals(value(i), bitcask.read(i));
+            }
+        }
+    }
+
+    @Test
+    void bitFlipInTheLastRecordIsTruncated() throws IOException {
+        Path dataFile = writeRecords();
+        flipBit(dataFile, recordOffset(RECORDS - 1) + BitcaskRecord.HEADER_SIZE);
+
+        try (BitcaskDAO bitcask = open()) {
+            for (int i = 0; i < RECORDS - 1; i++) {
+                assertArrayEquals(value(i), bitcask.read(i));
+            }
+            assertNull(bitcask.read(RECORDS - 1));
+            assertEquals(recordOffset(RECORDS - 1), Files.size(dataFile));
+        }
+    }
+
+    @Test
+    void oversizedValuesAreRejectedWithoutStoppingTheWriter() {
+        byte[] largest = new byte[Short.MAX_VALUE];
+        Arrays.fill(largest, (byte) 7);
+
+        try (BitcaskDAO bitcask = open()) {
+            assertThrows(IllegalArgumentException.class, () -> bitcask.write(1, new byte[Short.MAX_VALUE + 1]));
+            assertThrows(IllegalArgumentException.class, () -> bitcask.writeDurably(1, new byte[40_000]));
+            assertThrows(IllegalArgumentException.class, () -> bitcask.write(1, null));
+            assertThrows(IllegalArgumentException.class,
+                    () -> bitcask.writeBatch(new long[]{1, 2}, new byte[][]{value(1), new byte[40_000]}));
+            bitcask.writeDurably(2, largest).join();
+            bitcask.writeDurably(3, value(3)).join();
+        }
+        try (BitcaskDAO bitcask = open()) {
+            assertNull(bitcask.read(1));
+            assertArrayEquals(largest, bitcask.read(2));
+            assertArrayEquals(value(3), bitcask.read(3));
+        }
+    }
+
+    @Test
+    void tornHintFileFallsBackToTheDataFile() throws IOException {
+        Path dataFile = writeRecords();
+        Path hintFile = writeHintFile(dataFile);
+        truncate(hintFile, Files.size(hintFile) - 3);
+
+        try (BitcaskDAO bitcask = open()) {
+            for (int i = 0; i < RECORDS; i++) {
+                assertArrayEquals(value(i), bitcask.read(i));
+            }
+        }
+    }
+
+    @Test
+    void hintFilePointingPastItsDataFileFallsBackToTheDataFile() throws IOException {
+        Path dataFile = writeRecords();
+        writeHintFile(dataFile);
+        truncate(dataFile, recordOffset(RECORDS - 1) + RECORD_SIZE / 2);
+
+        try (BitcaskDAO bitcask = open()) {
+            for (int i = 0; i < RECORDS - 1; i++) {
+                assertArrayEquals(value(i), bitcask.read(i));
+            }
+            assertNull(bitcask.read(RECORDS - 1));
+
+            bitcask.writeDurably(RECORDS - 1, value(RECORDS)).join();
+        }
+        try (BitcaskDAO bitcask = open()) {
+            assertArrayEquals(value(RECORDS), bitcask.read(RECORDS - 1));
+        }
+    }
+
+    @Test
+    void hintFileForAnotherDataFileFallsBackToTheDataFile() throws IOException {
+        Path dataFile = writeRecords();
+        Path hintFile = writeHintFile(dataFile);
+        try (FileChannel channel = FileChannel.open(hintFile, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(Long.BYTES).putLong(0, Long.parseLong(dataFile.getFileName().toString()) + 1),
+                    Long.BYTES);
+        }
+
+        try (BitcaskDAO bitcask = open()) {
+            for (int i = 0; i < RECORDS; i++) {
+                assertArrayEquals(value(i), bitcask.read(i));
+            }
+        }
+    }
+
+    @Test
+    void mergeForgetsALiveRecordThatFailsItsChecksum() throws Exception {
+        Path dataFile = writeRecords();
+        BitcaskOptions options = options()
+                .mergeDelayMillis(500)
+                .mergeIntervalMillis(100)
+                .build();
+
+        try (BitcaskDAO bitcask = open(options)) {
+            for (int i : new int[]{0, 1, 3}) {
+                bitcask.writeDurably(i, value(RECORDS + i)).join();
+            }
+            flipBit(dataFile, recordOffset(2) + BitcaskRecord.HEADER_SIZE + VALUE_SIZE / 2);
+
+            long deadline = System.currentTimeMillis() + 10 * 1000;
+            while (bitcask.getMergeStats().getMerges() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(1, bitcask.getMergeStats().getMerges());
+            assertEquals(1, bitcask.getMergeStats().getKeysDropped());
+            assertFalse(Files.exists(dataFile));
+            assertNull(bitcask.read(2));
+            assertArrayEquals(value(4), bitcask.read(4));
+        }
+        try (BitcaskDAO bitcask = open()) {
+            assertNull(bitcask.read(2));
+            assertArrayEquals(value(RECORDS + 1), bitcask.read(1));
+            assertArrayEquals(value(4), bitcask.read(4));
+        }
+    }
+
+    @Test
+    void restartsDoNotPileUpEmptyDataFiles() throws IOException {
+        Path dataFile = writeRecords();
+
+        for (int i = 0; i < 3; i++) {
+            open().close();
+        }
+        Files.write(directory.resolve("1"), new byte[0]);
+
+        try (BitcaskDAO bitcask = open()) {
+            assertArrayEquals(value(0), bitcask.read(0));
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> dataFiles = files.filter(file -> !file.getFileName().toString().startsWith("hint-")).toList();
+            assertEquals(2, dataFiles.size());
+            assertTrue(dataFiles.contains(dataFile));
+        }
+    }
+
+    @Test
+    void batchWritesOnlyTheLastValueOfEachKey() throws IOException {
+        int keys = 3000;
+        long[] batchKeys = new long[2 * keys];
+        byte[][] batchValues = new byte[2 * keys][];
+        for (int i = 0; i < 2 * keys; i++) {
+            batchKeys[i] = i % keys;
+            batchValues[i] = value(i);
+        }
+
+        try (BitcaskDAO bitcask = open()) {
+            bitcask.writeBatch(batchKeys, batchValues);
+            bitcask.writeBatch(new long[]{1, 2, 1}, new byte[][]{value(1), value(2), value(3)});
+        }
+        try (BitcaskDAO bitcask = open()) {
+            assertArrayEquals(value(3), bitcask.read(1));
+            assertArrayEquals(value(2), bitcask.read(2));
+            for (int i = 3; i < keys; i++) {
+                assertArrayEquals(value(keys + i), bitcask.read(i));
+            }
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            long bytes = files.mapToLong(file -> file.toFile().length()).sum();
+            assertEquals(BitcaskRecord.FILE_HEADER_SIZE * 2L + (long) (keys + 2) * RECORD_SIZE, bytes);
+        }
+    }
+
+    @Test
+    void closeWritesAndForcesEveryQueuedRecord() {
+        BitcaskOptions options = options()
+                .syncPolicy(SyncPolicy.INTERVAL)
+                .syncIntervalMillis(TimeUnit.HOURS.toMillis(1))
+                .build();
+        int records = 20_000;
+
+        try (BitcaskDAO bitcask = open(options)) {
+            for (int i = 0; i < records; i++) {
+                bitcask.write(i, value(i));
+            }
+        }
+        try (BitcaskDAO bitcask = open(options)) {
+            for (int i = 0; i < records; i++) {
+                assertArrayEquals(value(i), bitcask.read(i));
+            }
+        }
+    }
+
+    @Test
+    void writesAfterCloseAreRejected() {
+        BitcaskDAO bitcask = open();
+        bitcask.close();
+
+        assertThrows(IllegalStateException.class, () -> bitcask.write(1, value(1)));
+        assertThrows(IllegalStateException.class, () -> bitcask.writeDurably(1, value(1)));
+        bitcask.close();
+    }
+
+    private BitcaskOptions.BitcaskOptionsBuilder options() {
+        return BitcaskOptions.builder()
+                .directory(directory + "/")
+                .syncPolicy(SyncPolicy.BATCH)
+                .mergeDelayMillis(TimeUnit.HOURS.toMillis(1))
+                .mergeIntervalMillis(TimeUnit.HOURS.toMillis(1));
+    }
+
+    private BitcaskDAO open() {
+        return open(options().build());
+    }
+
+    private BitcaskDAO open(BitcaskOptions options) {
+        return new BitcaskDAOImpl(LoggerFactory.getLogger(BitcaskRecoveryTest.class), options, OpenAddressingKeyDir::new);
+    }
+
+    /**
+     * Writes the records through a Bitcask and returns the data file holding them.
+     */
+    private Path writeRecords() throws IOException {
+        try (BitcaskDAO bitcask = open()) {
+            for (int i = 0; i < RECORDS; i++) {
+                bitcask.write(i, value(i));
+            }
+        }
+
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> dataFiles = files.filter(file -> {
+                try {
+                    return Files.size(file) > BitcaskRecord.FILE_HEADER_SIZE;
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }).toList();
+            assertEquals(1, dataFiles.size());
+            assertEquals(recordOffset(RECORDS), Files.size(dataFiles.get(0)));
+            return dataFiles.get(0);
+        }
+    }
+
+    /**
+     * Writes the hint file a merge would have written for the data file.
+     */
+    private Path writeHintFile(Path dataFile) throws IOException {
+        long fileID = Long.parseLong(dataFile.getFileName().toString());
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(dataFile));
+        ByteBuffer hint = ByteBuffer.allocate(RECORDS * HINT_ENTRY_SIZE);
+
+        for (int i = 0; i < RECORDS; i++) {
+            int position = (int) recordOffset(i);
+            hint.putLong(BitcaskRecord.key(data, position))
+                    .putLong(fileID)
+                    .putShort(BitcaskRecord.valueSize(data, position))
+                    .putLong(position + BitcaskRecord.HEADER_SIZE)
+                    .putLong(BitcaskRecord.timestamp(data, position));
+        }
+
+        Path hintFile = directory.resolve("hint-" + fileID);
+        Files.write(hintFile, hint.array());
+        return hintFile;
+    }
+
+    private static long recordOffset(int record) {
+        return BitcaskRecord.FILE_HEADER_SIZE + (long) record * RECORD_SIZE;
+    }
+
+    private static byte[] value(int key) {
+        byte[] value = new byte[VALUE_SIZE];
+        Arrays.fill(value, (byte) key);
+        return value;
+    }
+
+    private static void truncate(Path file, long length) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(length);
+        }
+    }
+
+    private static void flipBit(Path file, long position) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(position);
+            int b = raf.read();
+            raf.seek(position);
+            raf.write(b ^ 0x10);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package mapper;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dto.CompactStationMsgDTO;
+import dto.StationStatusMsgDTO;
+import dto.WeatherDTO;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks the parser against Jackson's data binding of {@link CompactStationMsgDTO}. Every message is also parsed with
+ * an unknown field in front, which sends it down the streaming fallback, so both paths are held to the same result.
+ */
+class CompactStationMsgParserTest {
+
+    private static final long STATION_ID = 7;
+    private static final long STATUS_TIMESTAMP = 1_700_000_000L;
+    private static final ObjectMapper JACKSON = new ObjectMapper()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    private static final String MESSAGE = "{\"s_no\":12,\"battery_status\":\"medium\","
+            + "\"weather\":{\"humidity\":40,\"temperature\":95,\"wind_speed\":13}}";
+
+    private final CompactStationMsgParser parser = new CompactStationMsgParser();
+
+    @Test
+    void messagesInTheStationsShapeAreDecoded() throws IOException {
+        StationStatusMsgDTO message = parse(MESSAGE);
+
+        assertEquals(STATION_ID, message.getStationId());
+        assertEquals(STATUS_TIMESTAMP, message.getStatusTimestamp());
+        assertEquals(12, message.getSequenceNumber());
+        assertEquals("medium", message.getBatteryStatus());
+        assertEquals(40, message.getWeather().getHumidity());
+        assertEquals(95, message.getWeather().getTemperature());
+        assertEquals(13, message.getWeather().getWindSpeed());
+        assertMatchesJackson(MESSAGE);
+    }
+
+    @Test
+    void escapesAreDecoded() throws IOException {
+        assertEquals("medium", parse("{\"s_no\":1,\"battery_status\":\"me\\u0064ium\"}").getBatteryStatus());
+
+        assertMatchesJackson("{\"s_no\":1,\"battery_status\":\"me\\u0064ium\",\"weather\":{\"humidity\":1}}");
+        assertMatchesJackson("{\"s_no\":1,\"battery_status\":\"l\\\"o\\\\w\\n\"}");
+        assertMatchesJackson("{\"s_\\u006eo\":5,\"weather\":{\"wind_\\u0073peed\":9}}");
+    }
+
+    @Test
+    void fieldsMayComeInAnyOrder() throws IOException {
+        assertMatchesJackson("{\"weather\":{\"wind_speed\":3,\"humidity\":2,\"temperature\":1},"
+                + "\"battery_status\":\"high\",\"s_no\":4}");
+        assertMatchesJackson("{\"battery_status\":\"low\",\"weather\":{\"temperature\":-3},\"s_no\":9}");
+        assertMatchesJackson("{\"s_no\":1,\"s_no\":2,\"battery_status\":\"low\",\"battery_status\":\"high\"}");
+    }
+
+    @Test
+    void missingAndNullFieldsAreLeftEmpty() throws IOException {
+        StationStatusMsgDTO message = parse("{\"battery_status\":null,\"weather\":null}");
+
+        assertEquals(0, message.getSequenceNumber());
+        assertNull(message.getBatteryStatus());
+        assertNull(message.getWeather());
+
+        assertMatchesJackson("{}");
+        assertMatchesJackson("{\"s_no\":3}");
+        assertMatchesJackson("{\"battery_status\":null}");
+        assertMatchesJackson("{\"weather\":null}");
+        assertMatchesJackson("{\"weather\":{}}");
+        assertMatchesJackson("{\"s_no\":3,\"weather\":{\"humidity\":70}}");
+        assertMatchesJackson(" {\n\t\"s_no\" : 3 ,\r\n \"battery_status\" : \"low\" } ");
+    }
+
+    @Test
+    void numbersAtTheEdgesMatchJackson() throws IOException {
+        for (String json : List.of(
+                "{\"s_no\":0}",
+                "{\"s_no\":-1}",
+                "{\"s_no\":999999999999999999}",
+                "{\"s_no\":1000000000000000000}",
+                "{\"s_no\":" + Long.MAX_VALUE + "}",
+                "{\"s_no\":" + Long.MIN_VALUE + "}",
+                "{\"weather\":{\"humidity\":" + Integer.MAX_VALUE + ",\"temperature\":" + Integer.MIN_VALUE + "}}",
+                "{\"weather\":{\"temperature\":-0}}",
+                "{\"weather\":{\"temperature\":12.0,\"wind_speed\":1e2}}",
+                "{\"s_no\":5E1}")) {
+            assertMatchesJackson(json);
+        }
+
+        for (String json : List.of(
+                "{\"weather\":{\"humidity\":" + (Integer.MAX_VALUE + 1L) + "}}",
+                "{\"weather\":{\"temperature\":" + (Integer.MIN_VALUE - 1L) + "}}",
+                "{\"s_no\":9223372036854775808}")) {
+            assertThrows(IOException.class, () -> parse(json), json);
+            assertThrows(IOException.class, () -> JACKSON.readValue(json, CompactStationMsgDTO.class), json);
+        }
+    }
+
+    @Test
+    void unknownFieldsAndBatteryStatusesMatchJackson() throws IOException {
+        assertMatchesJackson("{\"s_no\":1,\"battery_status\":\"empty\"}");
+        assertMatchesJackson("{\"s_no\":1,\"extra\":{\"nested\":[1,2,{\"a\":null}]},\"battery_status\":\"low\"}");
+        assertMatchesJackson("{\"s_no\":1,\"weather\":{\"humidity\":1,\"pressure\":1013,\"wind_speed\":2}}");
+    }
+
+    @Test
+    void reusedTargetsKeepNothingFromTheLastMessage() throws IOException {
+        StationStatusMsgDTO target = new StationStatusMsgDTO();
+
+        parser.parse(ascii(MESSAGE), STATION_ID, STATUS_TIMESTAMP, target);
+        WeatherDTO weather = target.getWeather();
+
+        parser.parse(ascii("{\"weather\":{\"temperature\":5}}"), STATION_ID + 1, STATUS_TIMESTAMP + 1, target);
+        assertEquals(expected("{\"weather\":{\"temperature\":5}}", STATION_ID + 1, STATUS_TIMESTAMP + 1).toString(),
+                target.toString());
+        assertSame(weather, target.getWeather());
+
+        parser.parse(ascii("{\"s_no\":2}"), STATION_ID, STATUS_TIMESTAMP, target);
+        assertNull(target.getWeather());
+        assertNull(target.getBatteryStatus());
+    }
+
+    @Test
+    void malformedMessagesAreRejected() {
+        for (String json : List.of("", "[]", "null", "{\"s_no\":", "{\"s_no\":1", "{\"s_no\" 1}")) {
+            assertThrows(IOException.class, () -> parse(json), json);
+        }
+    }
+
+    private void assertMatchesJackson(String json) throws IOException {
+        String expected = expected(json, STATION_ID, STATUS_TIMESTAMP).toString();
+
+        assertEquals(expected, parse(json).toString(), json);
+        String fields = json.strip().substring(1).strip();
+        String withUnknownField = "{\"unknown\":true" + (fields.equals("}") ? "" : ",") + fields;
+        assertEquals(expected, parse(withUnknownField).toString(), withUnknownField);
+    }
+
+    private StationStatusMsgDTO parse(String json) throws IOException {
+        StationStatusMsgDTO target = new StationStatusMsgDTO();
+        parser.parse(ascii(json), STATION_ID, STATUS_TIMESTAMP, target);
+        return target;
+    }
+
+    private static StationStatusMsgDTO expected(String json, long stationId, long statusTimestamp) throws IOException {
+        CompactStationMsgDTO message = JACKSON.readValue(json, CompactStationMsgDTO.class);
+        return new StationStatusMsgDTO(stationId, message.getSequenceNumber(), message.getBatteryStatus(),
+                statusTimestamp, message.getWeather());
+    }
+
+    private static byte[] ascii(String json) {
+        return json.getBytes(StandardCharsets.US_ASCII);
+    }
+}
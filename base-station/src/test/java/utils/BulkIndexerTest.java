@@ -0,0 +1,222 @@
+package utils;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the indexer against a stub {@code _bulk} endpoint on the JDK HTTP server, which answers each request with a
+ * scripted response and records the request bodies.
+ */
+class BulkIndexerTest {
+
+    private static final long TIMEOUT_MILLIS = 10 * 1000;
+
+    private HttpServer server;
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    private volatile Function<String, StubResponse> responder;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            requests.add(body);
+            StubResponse response = responder.apply(body);
+            byte[] bytes = response.body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(response.status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void documentsAreSentUnderTheirIds() throws Exception {
+        responder = body -> ok(items(body, 201));
+
+        try (BulkIndexer indexer = indexer(8)) {
+            indexer.add("3-12-1700000000", "{\"stationId\":3}");
+            indexer.add("quote\"id", "{\"stationId\":4}");
+            assertTrue(indexer.awaitIdle(TIMEOUT_MILLIS));
+
+            assertEquals(List.of(
+                    "{\"index\":{\"_id\":\"3-12-1700000000\"}}\n{\"stationId\":3}\n"
+                            + "{\"index\":{\"_id\":\"quote\\\"id\"}}\n{\"stationId\":4}\n"), requests);
+            assertEquals(2, indexer.getIndexingStats().getDocumentsIndexed());
+        }
+    }
+
+    @Test
+    void bulkRejectedAsAWholeIsSentAgain() throws Exception {
+        responder = body -> requests.size() == 1
+                ? new StubResponse(429, "{\"error\":{\"type\":\"es_rejected_execution_exception\"},\"status\":429}")
+                : ok("{\"took\":1,\"errors\":false,\"items\":[]}");
+
+        try (BulkIndexer indexer = indexer(8)) {
+            for (int i = 0; i < 3; i++) {
+                indexer.add("id-" + i, "{\"n\":" + i + "}");
+            }
+            assertTrue(indexer.awaitIdle(TIMEOUT_MILLIS));
+
+            assertEquals(2, requests.size());
+            assertEquals(requests.get(0), requests.get(1));
+            IndexingStats stats = indexer.getIndexingStats();
+            assertEquals(1, stats.getRetries());
+            assertEquals(3, stats.getDocumentsIndexed());
+            assertEquals(0, stats.getDocumentsFailed());
+        }
+    }
+
+    @Test
+    void bulkFailingWithAServerErrorIsSentAgain() throws Exception {
+        responder = body -> requests.size() == 1
+                ? new StubResponse(500, "{\"error\":{\"type\":\"illegal_state_exception\"},\"status\":500}")
+                : ok(items(body, requests.size() == 2 ? 500 : 201));
+
+        try (BulkIndexer indexer = indexer(8)) {
+            indexer.add("id-0", "{\"n\":0}");
+            assertTrue(indexer.awaitIdle(TIMEOUT_MILLIS));
+
+            assertEquals(3, requests.size());
+            IndexingStats stats = indexer.getIndexingStats();
+            assertEquals(2, stats.getRetries());
+            assertEquals(1, stats.getDocumentsIndexed());
+            assertEquals(0, stats.getDocumentsFailed());
+        }
+    }
+
+    @Test
+    void onlyItemsRejectedWithARetryableStatusAreSentAgain() throws Exception {
+        responder = body -> requests.size() == 1 ? ok(items(body, 201, 429, 400, 503)) : ok(items(body, 201));
+
+        try (BulkIndexer indexer = indexer(8)) {
+            for (int i = 0; i < 4; i++) {
+                indexer.add("id-" + i, "{\"n\":" + i + "}");
+            }
+            assertTrue(indexer.awaitIdle(TIMEOUT_MILLIS));
+
+            assertEquals(2, requests.size());
+            assertEquals("{\"index\":{\"_id\":\"id-1\"}}\n{\"n\":1}\n{\"index\":{\"_id\":\"id-3\"}}\n{\"n\":3}\n",
+                    requests.get(1));
+            IndexingStats stats = indexer.getIndexingStats();
+            assertEquals(3, stats.getDocumentsIndexed());
+            assertEquals(1, stats.getDocumentsFailed());
+            assertEquals(0, stats.getDocumentsDropped());
+        }
+    }
+
+    @Test
+    void bulkRejectedForGoodIsCountedAsFailed() throws Exception {
+        responder = body -> new StubResponse(400, "{\"error\":{\"type\":\"parse_exception\"},\"status\":400}");
+
+        try (BulkIndexer indexer = indexer(8)) {
+            indexer.add("id-0", "{\"n\":0}");
+            indexer.add("id-1", "{\"n\":1}");
+            assertTrue(indexer.awaitIdle(TIMEOUT_MILLIS));
+
+            assertEquals(1, requests.size());
+            assertEquals(2, indexer.getIndexingStats().getDocumentsFailed());
+            assertEquals(0, indexer.getIndexingStats().getRetries());
+        }
+    }
+
+    @Test
+    void documentsAreDroppedOnceRetriesRunOut() throws Exception {
+        responder = body -> new StubResponse(503, "{\"error\":{\"type\":\"unavailable\"},\"status\":503}");
+
+        try (BulkIndexer indexer = indexer(2)) {
+            indexer.add("id-0", "{\"n\":0}");
+            assertTrue(indexer.awaitIdle(TIMEOUT_MILLIS));
+
+            assertEquals(3, requests.size());
+            assertEquals(2, indexer.getIndexingStats().getRetries());
+            assertEquals(1, indexer.getIndexingStats().getDocumentsDropped());
+            assertEquals(0, indexer.getIndexingStats().getDocumentsIndexed());
+        }
+    }
+
+    @Test
+    void bulksAreSplitByDocumentCount() throws Exception {
+        responder = body -> ok(items(body, 201));
+
+        try (BulkIndexer indexer = indexer(8)) {
+            for (int i = 0; i < 25; i++) {
+                indexer.add("id-" + i, "{\"n\":" + i + "}");
+            }
+            assertTrue(indexer.awaitIdle(TIMEOUT_MILLIS));
+
+            assertEquals(3, requests.size());
+            assertEquals(25, indexer.getIndexingStats().getDocumentsIndexed());
+        }
+    }
+
+    private BulkIndexer indexer(int maxRetries) {
+        ElasticsearchOptions options = ElasticsearchOptions.builder()
+                .url("http://127.0.0.1:" + server.getAddress().getPort())
+                .bulkMaxDocuments(10)
+                .maxRetries(maxRetries)
+                .retryInitialBackoffMillis(10)
+                .retryMaxBackoffMillis(50)
+                .build();
+        return new BulkIndexer(options, LoggerFactory.getLogger(BulkIndexerTest.class));
+    }
+
+    /* One item per document of the request; the last status repeats for the remaining documents */
+    private static String items(String request, int... statuses) {
+        int documents = request.split("\n").length / 2;
+        StringBuilder items = new StringBuilder();
+        boolean errors = false;
+
+        for (int i = 0; i < documents; i++) {
+            int status = statuses[Math.min(i, statuses.length - 1)];
+            if (i > 0) {
+                items.append(',');
+            }
+            items.append("{\"index\":{\"_index\":\"data\",\"status\":").append(status);
+            if (status >= 300) {
+                errors = true;
+                items.append(",\"error\":{\"type\":\"error_").append(status)
+                        .append("\",\"reason\":\"stub\",\"caused_by\":{\"type\":\"nested\"}}");
+            }
+            items.append("}}");
+        }
+        return "{\"took\":1,\"errors\":" + errors + ",\"items\":[" + items + "]}";
+    }
+
+    private static StubResponse ok(String body) {
+        return new StubResponse(200, body);
+    }
+
+    private static final class StubResponse {
+
+        final int status;
+        final String body;
+
+        StubResponse(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+}
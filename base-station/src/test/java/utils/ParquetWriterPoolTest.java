@@ -0,0 +1,98 @@
+package utils;
+
+import dto.StationStatusMsgDTO;
+import dto.WeatherDTO;
+import org.apache.avro.Schema;
+import org.apache.hadoop.fs.Path;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks which rows the pool reports as possibly still in an open file, which is what the consumer's offset commits
+ * wait on.
+ */
+class ParquetWriterPoolTest {
+
+    private static final String STATUS_SCHEMA_LOCATION = "src/main/resources/archiving_files/avroSchema.avsc";
+    private static final long TIMESTAMP = 1_700_000_000_000L;
+
+    @TempDir
+    File directory;
+
+    private Schema schema;
+    private final FlushStats flushStats = new FlushStats(() -> 0);
+    private final List<Path> closedFiles = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        schema = new Schema.Parser().parse(new File(STATUS_SCHEMA_LOCATION));
+    }
+
+    @Test
+    void rowsAreOpenUntilTheirFileCloses() throws IOException {
+        ParquetWriterPool pool = pool(ParquetOptions.builder().build());
+        assertEquals(Long.MAX_VALUE, pool.oldestOpenRow());
+
+        pool.write(partition(1), status(1, 0), 1);
+        pool.write(partition(2), status(2, 0), 1);
+        pool.write(partition(1), status(1, 1), 3);
+        pool.write(partition(3), status(3, 0), 3);
+        assertEquals(1, pool.oldestOpenRow());
+        assertEquals(0, closedFiles.size());
+
+        pool.closeAll();
+        assertEquals(Long.MAX_VALUE, pool.oldestOpenRow());
+        assertEquals(3, closedFiles.size());
+    }
+
+    @Test
+    void evictedAndExpiredFilesNoLongerHoldRowsBack() throws IOException {
+        ParquetWriterPool pool = pool(ParquetOptions.builder().maxOpenWriters(2).build());
+
+        pool.write(partition(1), status(1, 0), 1);
+        pool.write(partition(2), status(2, 0), 5);
+        pool.write(partition(3), status(3, 0), 9);
+        assertEquals(5, pool.oldestOpenRow());
+        assertEquals(1, flushStats.getEvictedFiles());
+
+        ParquetWriterPool expiring = pool(ParquetOptions.builder().maxFileAgeMillis(0).build());
+        expiring.write(partition(4), status(4, 0), 1);
+        expiring.closeExpired();
+        assertEquals(Long.MAX_VALUE, expiring.oldestOpenRow());
+        pool.closeAll();
+    }
+
+    @Test
+    void aRowOutOfOrderStartsItsFileOver() throws IOException {
+        ParquetWriterPool pool = pool(ParquetOptions.builder().build());
+
+        pool.write(partition(1), status(1, 5), 1);
+        pool.write(partition(1), status(1, 2), 7);
+        assertEquals(7, pool.oldestOpenRow());
+        assertEquals(1, closedFiles.size());
+        pool.closeAll();
+    }
+
+    private ParquetWriterPool pool(ParquetOptions options) {
+        return new ParquetWriterPool(schema, options, flushStats, LoggerFactory.getLogger(ParquetWriterPoolTest.class),
+                closedFiles::add);
+    }
+
+    private String partition(long stationId) {
+        return new File(directory, "station=" + stationId).getPath();
+    }
+
+    private static StationStatusMsgDTO status(long stationId, long sequenceNumber) {
+        return new StationStatusMsgDTO(stationId, sequenceNumber, "low", TIMESTAMP + sequenceNumber * 1000,
+                new WeatherDTO(40, 95, 13));
+    }
+}